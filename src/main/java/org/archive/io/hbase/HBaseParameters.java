@@ -506,6 +506,9 @@ That's all there is to it!
 
 package org.archive.io.hbase;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.archive.io.ArchiveFileConstants;
 
 import com.google.common.base.Preconditions;
@@ -595,6 +598,48 @@ public class HBaseParameters implements ArchiveFileConstants {
 	/** The Constant REQUEST_COLUMN_NAME. */
 	public static final String REQUEST_COLUMN_NAME = "request";
 	
+	/** The Constant PAYLOAD_DIGEST_COLUMN_NAME. */
+	public static final String PAYLOAD_DIGEST_COLUMN_NAME = "digest";
+	
+	/** The Constant REVISIT_COLUMN_NAME. */
+	public static final String REVISIT_COLUMN_NAME = "revisit";
+	
+	/** The Constant METADATA_COLUMN_NAME. */
+	public static final String METADATA_COLUMN_NAME = "meta";
+	
+	/** The Constant FETCH_STATUS_COLUMN_NAME. */
+	public static final String FETCH_STATUS_COLUMN_NAME = "fetch-status";
+	
+	/** The Constant CONTENT_TYPE_COLUMN_NAME. */
+	public static final String CONTENT_TYPE_COLUMN_NAME = "content-type";
+	
+	/** The Constant CONTENT_LENGTH_COLUMN_NAME. */
+	public static final String CONTENT_LENGTH_COLUMN_NAME = "content-length";
+	
+	/** The Constant RESPONSE_HEADER_COLUMN_PREFIX. */
+	public static final String RESPONSE_HEADER_COLUMN_PREFIX = "header-";
+	
+	/** The Constant REVISIT_DIGEST_CACHE_SIZE. */
+	public static final int REVISIT_DIGEST_CACHE_SIZE = 100000;
+	
+	/** The Constant TIMESTAMP_POLICY. */
+	public static final TimestampPolicy TIMESTAMP_POLICY = TimestampPolicy.FETCH_TIME;
+	
+	/**
+	 * The Constant MAX_VERSIONS, 0 leaves the max versions of existing column
+	 * families as they are and gives new ones the HBase default.
+	 */
+	public static final int MAX_VERSIONS = 0;
+	
+	/** The Constant WRITE_BUFFER_SIZE, 0 writes every put straight through. */
+	public static final long WRITE_BUFFER_SIZE = 0;
+	
+	/** The Constant SLOW_BORROW_THRESHOLD_MS. */
+	public static final long SLOW_BORROW_THRESHOLD_MS = 1000;
+	
+	/** The Constant POOL_SUMMARY_INTERVAL_MS. */
+	public static final long POOL_SUMMARY_INTERVAL_MS = 5 * 60 * 1000;
+	
 	/** The Constant DEFAULT_MAX_FILE_SIZE_IN_BYTES. */
 	public static final long DEFAULT_MAX_FILE_SIZE_IN_BYTES = (long)(20 * 1024 * 1024);
 
@@ -603,6 +648,114 @@ public class HBaseParameters implements ArchiveFileConstants {
 	/** The ZOOKEEPE r_ clien t_ port. */
 	public static final String ZOOKEEPER_CLIENT_PORT = "hbase.zookeeper.property.clientPort";
 
+	/** The hbase client rpc timeout key. */
+	public static final String RPC_TIMEOUT = "hbase.rpc.timeout";
+
+	/** The Constant LOOKUP_POOL_SIZE. */
+	public static final int LOOKUP_POOL_SIZE = 5;
+
+	/** The Constant LOOKUP_RPC_TIMEOUT_MS. */
+	public static final long LOOKUP_RPC_TIMEOUT_MS = 10000;
+
+	/** The Constant LOOKUP_RETRIES. */
+	public static final int LOOKUP_RETRIES = 2;
+
+	/** The Constant LOOKUP_BORROW_TIMEOUT_MS. */
+	public static final long LOOKUP_BORROW_TIMEOUT_MS = 5000;
+
+	/** The Constant TARGET_PUT_LATENCY_MS. */
+	public static final long TARGET_PUT_LATENCY_MS = 500;
+
+	/** The Constant FLOW_CONTROL_INITIAL_WINDOW_BYTES. */
+	public static final long FLOW_CONTROL_INITIAL_WINDOW_BYTES = 64L * 1024 * 1024;
+
+	/** The Constant FLOW_CONTROL_MIN_WINDOW_BYTES. */
+	public static final long FLOW_CONTROL_MIN_WINDOW_BYTES = 2L * 1024 * 1024;
+
+	/** The Constant FLOW_CONTROL_MAX_WINDOW_BYTES. */
+	public static final long FLOW_CONTROL_MAX_WINDOW_BYTES = 256L * 1024 * 1024;
+
+	/** The Constant MAX_BACKPRESSURE_DELAY_MS. */
+	public static final long MAX_BACKPRESSURE_DELAY_MS = 1000;
+
+	/** The Constant WRITE_RETRIES. */
+	public static final int WRITE_RETRIES = 3;
+
+	/** The Constant RETRY_BASE_DELAY_MS. */
+	public static final long RETRY_BASE_DELAY_MS = 100;
+
+	/** The Constant RETRY_MAX_DELAY_MS. */
+	public static final long RETRY_MAX_DELAY_MS = 10000;
+
+	/** The Constant CIRCUIT_BREAKER_FAILURE_THRESHOLD. */
+	public static final int CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+
+	/** The Constant CIRCUIT_BREAKER_OPEN_MS. */
+	public static final long CIRCUIT_BREAKER_OPEN_MS = 30000;
+
+	/** The Constant FAILED_PUT_QUEUE_SIZE. */
+	public static final int FAILED_PUT_QUEUE_SIZE = 1000;
+
+	/** The Constant FAILED_PUT_QUEUE_MAX_BYTES. */
+	public static final long FAILED_PUT_QUEUE_MAX_BYTES = 64L * 1024 * 1024;
+
+	/** The Constant FAILED_PUT_REPLAY_BATCH. */
+	public static final int FAILED_PUT_REPLAY_BATCH = 10;
+
+	/** The Constant SPOOL_SEGMENT_SIZE_BYTES. */
+	public static final int SPOOL_SEGMENT_SIZE_BYTES = 64 * 1024 * 1024;
+
+	/** The Constant SPOOL_REPLAY_INTERVAL_MS. */
+	public static final long SPOOL_REPLAY_INTERVAL_MS = 10000;
+
+	/** The Constant SPOOL_FORCE_BYTES. */
+	public static final long SPOOL_FORCE_BYTES = 1024 * 1024;
+
+	/** The Constant SPOOL_FORCE_INTERVAL_MS. */
+	public static final long SPOOL_FORCE_INTERVAL_MS = 1000;
+
+	/** The Constant BULK_LOAD_BUFFER_BYTES. */
+	public static final long BULK_LOAD_BUFFER_BYTES = 256 * 1024 * 1024;
+
+	/** The Constant CONTENT_DURABILITY. */
+	public static final WriteDurability CONTENT_DURABILITY = WriteDurability.SYNC_WAL;
+
+	/** The Constant CURI_DURABILITY. */
+	public static final WriteDurability CURI_DURABILITY = WriteDurability.SYNC_WAL;
+
+	/** The Constant REGION_BATCH_BYTES. */
+	public static final long REGION_BATCH_BYTES = 0;
+
+	/** The Constant REGION_BATCH_MAX_DELAY_MS. */
+	public static final long REGION_BATCH_MAX_DELAY_MS = 1000;
+
+	/** The Constant MAPPED_REPLAY_MIN_BYTES. */
+	public static final int MAPPED_REPLAY_MIN_BYTES = 1024 * 1024;
+
+	/** The Constant CONTENT_PROCESSOR_THREADS. */
+	public static final int CONTENT_PROCESSOR_THREADS = 4;
+
+	/** The Constant CONTENT_PROCESSOR_TIMEOUT_MS. */
+	public static final long CONTENT_PROCESSOR_TIMEOUT_MS = 30000;
+
+	/** The Constant ENRICHMENT_QUEUE_SIZE. */
+	public static final int ENRICHMENT_QUEUE_SIZE = 1000;
+
+	/** The Constant ENRICHMENT_MAX_BACKLOG_BYTES. */
+	public static final long ENRICHMENT_MAX_BACKLOG_BYTES = 256L * 1024 * 1024;
+
+	/** The Constant ENRICHMENT_BATCH_SIZE. */
+	public static final int ENRICHMENT_BATCH_SIZE = 100;
+
+	/** The Constant ENRICHMENT_FLUSH_INTERVAL_MS. */
+	public static final long ENRICHMENT_FLUSH_INTERVAL_MS = 1000;
+
+	/** The Constant CONTENT_SAMPLE_RATE. */
+	public static final double CONTENT_SAMPLE_RATE = 1.0;
+
+	/** The Constant LARGE_PUT_CONCURRENCY. */
+	public static final int LARGE_PUT_CONCURRENCY = 2;
+
 	/** ACTUAL OPTIONS INITIALIZED TO DEFAULTS *. */
 	private String zkQuorum = null;
 	
@@ -612,6 +765,22 @@ public class HBaseParameters implements ArchiveFileConstants {
 	/** The hbase table name. */
 	private String hbaseTableName = null;
 
+	/**
+	 * The content table name. If set, the content column family is written to
+	 * this table instead of the crawl table, which then only holds the curi
+	 * metadata.
+	 */
+	private String contentTableName = null;
+
+	/** The client write buffer size of the crawl table. */
+	private long writeBufferSize = WRITE_BUFFER_SIZE;
+
+	/** The client write buffer size of the content table. */
+	private long contentWriteBufferSize = WRITE_BUFFER_SIZE;
+
+	/** Whether the content column family uses the block cache. */
+	private boolean contentBlockCacheEnabled = true;
+
 	/** The content column family. */
 	private String contentColumnFamily = CONTENT_COLUMN_FAMILY;
 	
@@ -639,6 +808,66 @@ public class HBaseParameters implements ArchiveFileConstants {
 	/** The request column name. */
 	private String requestColumnName = REQUEST_COLUMN_NAME;
 	
+	/** The payload digest column name. */
+	private String payloadDigestColumnName = PAYLOAD_DIGEST_COLUMN_NAME;
+	
+	/** The revisit column name. */
+	private String revisitColumnName = REVISIT_COLUMN_NAME;
+	
+	/** The metadata column name. */
+	private String metadataColumnName = METADATA_COLUMN_NAME;
+	
+	/**
+	 * Default is false, which writes every curi metadata value to its own
+	 * column. If set to true, the url, ip, seed, via, payload digest and fetch
+	 * metadata are packed into a single {@link MetadataRecord} cell instead,
+	 * cutting the number of KeyValues per row. The request and content are
+	 * still written as their own cells.
+	 */
+	private boolean compactMetadata = false;
+	
+	/** The fetch status column name. */
+	private String fetchStatusColumnName = FETCH_STATUS_COLUMN_NAME;
+	
+	/** The content type column name. */
+	private String contentTypeColumnName = CONTENT_TYPE_COLUMN_NAME;
+	
+	/** The content length column name. */
+	private String contentLengthColumnName = CONTENT_LENGTH_COLUMN_NAME;
+	
+	/** The prefix of the column names of the captured response headers. */
+	private String responseHeaderColumnPrefix = RESPONSE_HEADER_COLUMN_PREFIX;
+	
+	/** The names of the response headers written as columns. */
+	private List<String> responseHeaders = new ArrayList<String>();
+	
+	/**
+	 * Default is false. If set to true, the fetch status, content type,
+	 * content length and the configured response headers are written as
+	 * separate typed cells, so they can be read without parsing the raw
+	 * content.
+	 */
+	private boolean writeFetchMetadata = false;
+	
+	/** The number of rowkey digests remembered for revisit checks. */
+	private int revisitDigestCacheSize = REVISIT_DIGEST_CACHE_SIZE;
+	
+	/** The timestamp policy applied to every cell written. */
+	private TimestampPolicy timestampPolicy = TIMESTAMP_POLICY;
+	
+	/**
+	 * The crawl epoch used by {@link TimestampPolicy#CRAWL_EPOCH}, which
+	 * needs it set: a time taken when the job starts would change when the
+	 * job is restarted or resumed from a checkpoint.
+	 */
+	private long crawlEpoch = 0;
+	
+	/** The max versions kept by the content column family, 0 to leave as is. */
+	private int contentMaxVersions = MAX_VERSIONS;
+	
+	/** The max versions kept by the curi column family, 0 to leave as is. */
+	private int curiMaxVersions = MAX_VERSIONS;
+	
 	/** The default max file size in bytes. */
 	private long defaultMaxFileSizeInBytes = DEFAULT_MAX_FILE_SIZE_IN_BYTES;
 
@@ -648,6 +877,174 @@ public class HBaseParameters implements ArchiveFileConstants {
 	/** The serializer. */
 	private Serializer serializer = null;
 
+	/** The registry the writer metrics are forwarded to, if any. */
+	private MetricsRegistry metricsRegistry = null;
+
+	/** Whether the writer metrics are registered with JMX. */
+	private boolean jmxEnabled = true;
+
+	/** Borrowing a writer from the pool taking this long is logged, 0 disables. */
+	private long slowBorrowThresholdMs = SLOW_BORROW_THRESHOLD_MS;
+
+	/** How often a summary of the pool usage is logged, 0 disables. */
+	private long poolSummaryIntervalMs = POOL_SUMMARY_INTERVAL_MS;
+
+	/** How the writer pool hands out writers to threads. */
+	private WriterAffinity writerAffinity = WriterAffinity.POOLED;
+
+	/** The number of writers in STRIPED affinity mode, 0 uses poolMaxActive. */
+	private int writerStripes = 0;
+
+	/** The number of read only clients used for existence checks. */
+	private int lookupPoolSize = LOOKUP_POOL_SIZE;
+
+	/** The rpc timeout of the read only clients. */
+	private long lookupRpcTimeoutMs = LOOKUP_RPC_TIMEOUT_MS;
+
+	/** The number of retries of the read only clients. */
+	private int lookupRetries = LOOKUP_RETRIES;
+
+	/** How long to wait for a free read only client. */
+	private long lookupBorrowTimeoutMs = LOOKUP_BORROW_TIMEOUT_MS;
+
+	/**
+	 * Default is false. If set to true, the bytes of puts in flight to HBase
+	 * are limited by a window that shrinks when puts get slower than
+	 * targetPutLatencyMs or fail, and grows again while they are fast. The
+	 * processor delays each write in proportion to the resulting
+	 * backpressure, so fetching slows down smoothly while HBase is busy.
+	 */
+	private boolean flowControlEnabled = false;
+
+	/** The put latency above which the flow control window shrinks. */
+	private long targetPutLatencyMs = TARGET_PUT_LATENCY_MS;
+
+	/** The initial flow control window. */
+	private long flowControlInitialWindowBytes = FLOW_CONTROL_INITIAL_WINDOW_BYTES;
+
+	/** The smallest flow control window. */
+	private long flowControlMinWindowBytes = FLOW_CONTROL_MIN_WINDOW_BYTES;
+
+	/** The largest flow control window. */
+	private long flowControlMaxWindowBytes = FLOW_CONTROL_MAX_WINDOW_BYTES;
+
+	/** The delay added to a write at full backpressure. */
+	private long maxBackpressureDelayMs = MAX_BACKPRESSURE_DELAY_MS;
+
+	/** The number of times a retriable put failure is retried. */
+	private int writeRetries = WRITE_RETRIES;
+
+	/** The backoff limit before the first retry, doubled on every retry. */
+	private long retryBaseDelayMs = RETRY_BASE_DELAY_MS;
+
+	/** The largest backoff limit. */
+	private long retryMaxDelayMs = RETRY_MAX_DELAY_MS;
+
+	/** The consecutive failures that open the circuit of a region. */
+	private int circuitBreakerFailureThreshold = CIRCUIT_BREAKER_FAILURE_THRESHOLD;
+
+	/** How long the circuit of a region stays open before it is probed. */
+	private long circuitBreakerOpenMs = CIRCUIT_BREAKER_OPEN_MS;
+
+	/** The most failed puts queued for a later retry. */
+	private int failedPutQueueSize = FAILED_PUT_QUEUE_SIZE;
+
+	/** The most heap bytes of failed puts queued for a later retry. */
+	private long failedPutQueueMaxBytes = FAILED_PUT_QUEUE_MAX_BYTES;
+
+	/** The most queued puts a write tries again before its own put. */
+	private int failedPutReplayBatch = FAILED_PUT_REPLAY_BATCH;
+
+	/** The directory of the local spool, or null for no spool. */
+	private String spoolDirectory = null;
+
+	/** The size of a local spool segment file. */
+	private int spoolSegmentSizeBytes = SPOOL_SEGMENT_SIZE_BYTES;
+
+	/** The time between attempts to replay the local spool. */
+	private long spoolReplayIntervalMs = SPOOL_REPLAY_INTERVAL_MS;
+
+	/** The bytes appended to the spool before they are forced to disk. */
+	private long spoolForceBytes = SPOOL_FORCE_BYTES;
+
+	/** The longest time appended records wait to be forced to disk. */
+	private long spoolForceIntervalMs = SPOOL_FORCE_INTERVAL_MS;
+
+	/** The directory HFiles are written to, or null to write with puts. */
+	private String bulkLoadDirectory = null;
+
+	/** The cells buffered by a writer before they are written as HFiles. */
+	private long bulkLoadBufferBytes = BULK_LOAD_BUFFER_BYTES;
+
+	/** Whether writers load their HFiles into the tables when closed. */
+	private boolean bulkLoadOnClose = true;
+
+	/** The durability of the content column family. */
+	private WriteDurability contentDurability = CONTENT_DURABILITY;
+
+	/** The durability of the curi column family. */
+	private WriteDurability curiDurability = CURI_DURABILITY;
+
+	/** The size at which a region's batch of puts is written, 0 for no region batching. */
+	private long regionBatchBytes = REGION_BATCH_BYTES;
+
+	/** The longest a put waits in a region's batch. */
+	private long regionBatchMaxDelayMs = REGION_BATCH_MAX_DELAY_MS;
+
+	/** Whether bodies spilled to disk by the Recorder are read by memory mapping. */
+	private boolean mappedReplayEnabled = false;
+
+	/** The smallest body read by memory mapping. */
+	private int mappedReplayMinBytes = MAPPED_REPLAY_MIN_BYTES;
+
+	/** The content processors run over each response body. */
+	private List<ContentProcessor> contentProcessors = new ArrayList<ContentProcessor>();
+
+	/** The number of threads the content processors run on. */
+	private int contentProcessorThreads = CONTENT_PROCESSOR_THREADS;
+
+	/** How long a record waits for its content processors. */
+	private long contentProcessorTimeoutMs = CONTENT_PROCESSOR_TIMEOUT_MS;
+
+	/** Whether the content processors run after the raw row is written. */
+	private boolean deferredEnrichment = false;
+
+	/** The number of rows waiting to be enriched past which rows aren't enriched. */
+	private int enrichmentQueueSize = ENRICHMENT_QUEUE_SIZE;
+
+	/** The body bytes waiting to be enriched past which rows aren't enriched. */
+	private long enrichmentMaxBacklogBytes = ENRICHMENT_MAX_BACKLOG_BYTES;
+
+	/** The number of enrichment puts written together. */
+	private int enrichmentBatchSize = ENRICHMENT_BATCH_SIZE;
+
+	/** How long enrichment puts wait for a batch to fill. */
+	private long enrichmentFlushIntervalMs = ENRICHMENT_FLUSH_INTERVAL_MS;
+
+	/** The fraction of responses whose content is written. */
+	private double contentSampleRate = CONTENT_SAMPLE_RATE;
+
+	/** What the content sample is drawn by. */
+	private ContentSampling contentSampling = ContentSampling.URL;
+
+	/** The bytes a host may write, 0 for no quota. */
+	private long hostQuotaBytes = 0;
+
+	/** The rows a host may write, 0 for no quota. */
+	private long hostQuotaRows = 0;
+
+	/** What is done with the writes of a host past its quota. */
+	private HostQuotaAction hostQuotaAction = HostQuotaAction.MARK;
+
+	/** The serialized size from which puts are written on their own, 0 to batch all puts. */
+	private long largePutThresholdBytes = 0;
+
+	/** The number of large puts written at once. */
+	private int largePutConcurrency = LARGE_PUT_CONCURRENCY;
+
+	/** How the request of each uri is kept. */
+	private RequestCapture requestCapture = RequestCapture.FULL;
+
 	/**
 	 * Default is false, which will write all urls to the HBase table. If set to
 	 * true, then only write urls that are new rowkey records. Heritrix is good
@@ -671,6 +1068,16 @@ public class HBaseParameters implements ArchiveFileConstants {
 	 */
 	private boolean onlyProcessNewRecords = false;
 
+	/**
+	 * Default is false, which will write the full content of every url to the
+	 * HBase table. If set to true, the payload digest heritrix computed for the
+	 * fetch is compared against the digest stored in the existing row. When
+	 * they match, the content is unchanged since the last crawl and only a
+	 * small revisit cell (fetch time and status) is written instead of the
+	 * content. Useful for recrawls, where most pages have not changed.
+	 */
+	private boolean onlyWriteChangedContent = false;
+
 	/**
 	 * Gets the zk quorum.
 	 *
@@ -728,6 +1135,87 @@ public class HBaseParameters implements ArchiveFileConstants {
 		hbaseTableName = tableName;
 	}
 
+	/**
+	 * Gets the content table name.
+	 *
+	 * @return the content table name
+	 */
+	public String getContentTableName() {
+		return contentTableName;
+	}
+
+	/**
+	 * Sets the content table name.
+	 *
+	 * @param contentTableName the new content table name
+	 */
+	public void setContentTableName(String contentTableName) {
+		this.contentTableName = contentTableName;
+	}
+
+	/**
+	 * Checks if content is written to a separate content table.
+	 *
+	 * @return true, if a content table name other than the crawl table is set
+	 */
+	public boolean isSeparateContentTable() {
+		return contentTableName != null && !contentTableName.isEmpty() && !contentTableName.equals(hbaseTableName);
+	}
+
+	/**
+	 * Gets the write buffer size.
+	 *
+	 * @return the write buffer size
+	 */
+	public long getWriteBufferSize() {
+		return writeBufferSize;
+	}
+
+	/**
+	 * Sets the write buffer size.
+	 *
+	 * @param writeBufferSize the new write buffer size
+	 */
+	public void setWriteBufferSize(long writeBufferSize) {
+		this.writeBufferSize = writeBufferSize;
+	}
+
+	/**
+	 * Gets the content write buffer size.
+	 *
+	 * @return the content write buffer size
+	 */
+	public long getContentWriteBufferSize() {
+		return contentWriteBufferSize;
+	}
+
+	/**
+	 * Sets the content write buffer size.
+	 *
+	 * @param contentWriteBufferSize the new content write buffer size
+	 */
+	public void setContentWriteBufferSize(long contentWriteBufferSize) {
+		this.contentWriteBufferSize = contentWriteBufferSize;
+	}
+
+	/**
+	 * Checks if is content block cache enabled.
+	 *
+	 * @return true, if is content block cache enabled
+	 */
+	public boolean isContentBlockCacheEnabled() {
+		return contentBlockCacheEnabled;
+	}
+
+	/**
+	 * Sets the content block cache enabled.
+	 *
+	 * @param contentBlockCacheEnabled the new content block cache enabled
+	 */
+	public void setContentBlockCacheEnabled(boolean contentBlockCacheEnabled) {
+		this.contentBlockCacheEnabled = contentBlockCacheEnabled;
+	}
+
 	/**
 	 * Gets the content column family.
 	 *
@@ -890,6 +1378,42 @@ public class HBaseParameters implements ArchiveFileConstants {
 		this.requestColumnName = requestColumnName;
 	}
 
+	/**
+	 * Gets the payload digest column name.
+	 *
+	 * @return the payload digest column name
+	 */
+	public String getPayloadDigestColumnName() {
+		return payloadDigestColumnName;
+	}
+
+	/**
+	 * Sets the payload digest column name.
+	 *
+	 * @param payloadDigestColumnName the new payload digest column name
+	 */
+	public void setPayloadDigestColumnName(String payloadDigestColumnName) {
+		this.payloadDigestColumnName = payloadDigestColumnName;
+	}
+
+	/**
+	 * Gets the revisit column name.
+	 *
+	 * @return the revisit column name
+	 */
+	public String getRevisitColumnName() {
+		return revisitColumnName;
+	}
+
+	/**
+	 * Sets the revisit column name.
+	 *
+	 * @param revisitColumnName the new revisit column name
+	 */
+	public void setRevisitColumnName(String revisitColumnName) {
+		this.revisitColumnName = revisitColumnName;
+	}
+
 	/**
 	 * Gets the zookeeper client port key.
 	 *
@@ -971,6 +1495,1277 @@ public class HBaseParameters implements ArchiveFileConstants {
 		this.onlyProcessNewRecords = onlyProcessNewRecords;
 	}
 
+	/**
+	 * Checks if is only write changed content.
+	 *
+	 * @return true, if is only write changed content
+	 */
+	public boolean isOnlyWriteChangedContent() {
+		return onlyWriteChangedContent;
+	}
+
+	/**
+	 * Sets the only write changed content.
+	 *
+	 * @param onlyWriteChangedContent the new only write changed content
+	 */
+	public void setOnlyWriteChangedContent(boolean onlyWriteChangedContent) {
+		this.onlyWriteChangedContent = onlyWriteChangedContent;
+	}
+
+	/**
+	 * Gets the metadata column name.
+	 *
+	 * @return the metadata column name
+	 */
+	public String getMetadataColumnName() {
+		return metadataColumnName;
+	}
+
+	/**
+	 * Sets the metadata column name.
+	 *
+	 * @param metadataColumnName the new metadata column name
+	 */
+	public void setMetadataColumnName(String metadataColumnName) {
+		this.metadataColumnName = metadataColumnName;
+	}
+
+	/**
+	 * Checks if is compact metadata.
+	 *
+	 * @return true, if is compact metadata
+	 */
+	public boolean isCompactMetadata() {
+		return compactMetadata;
+	}
+
+	/**
+	 * Sets the compact metadata.
+	 *
+	 * @param compactMetadata the new compact metadata
+	 */
+	public void setCompactMetadata(boolean compactMetadata) {
+		this.compactMetadata = compactMetadata;
+	}
+
+	/**
+	 * Gets the fetch status column name.
+	 *
+	 * @return the fetch status column name
+	 */
+	public String getFetchStatusColumnName() {
+		return fetchStatusColumnName;
+	}
+
+	/**
+	 * Sets the fetch status column name.
+	 *
+	 * @param fetchStatusColumnName the new fetch status column name
+	 */
+	public void setFetchStatusColumnName(String fetchStatusColumnName) {
+		this.fetchStatusColumnName = fetchStatusColumnName;
+	}
+
+	/**
+	 * Gets the content type column name.
+	 *
+	 * @return the content type column name
+	 */
+	public String getContentTypeColumnName() {
+		return contentTypeColumnName;
+	}
+
+	/**
+	 * Sets the content type column name.
+	 *
+	 * @param contentTypeColumnName the new content type column name
+	 */
+	public void setContentTypeColumnName(String contentTypeColumnName) {
+		this.contentTypeColumnName = contentTypeColumnName;
+	}
+
+	/**
+	 * Gets the content length column name.
+	 *
+	 * @return the content length column name
+	 */
+	public String getContentLengthColumnName() {
+		return contentLengthColumnName;
+	}
+
+	/**
+	 * Sets the content length column name.
+	 *
+	 * @param contentLengthColumnName the new content length column name
+	 */
+	public void setContentLengthColumnName(String contentLengthColumnName) {
+		this.contentLengthColumnName = contentLengthColumnName;
+	}
+
+	/**
+	 * Gets the response header column prefix.
+	 *
+	 * @return the response header column prefix
+	 */
+	public String getResponseHeaderColumnPrefix() {
+		return responseHeaderColumnPrefix;
+	}
+
+	/**
+	 * Sets the response header column prefix.
+	 *
+	 * @param responseHeaderColumnPrefix the new response header column prefix
+	 */
+	public void setResponseHeaderColumnPrefix(String responseHeaderColumnPrefix) {
+		this.responseHeaderColumnPrefix = responseHeaderColumnPrefix;
+	}
+
+	/**
+	 * Gets the response headers.
+	 *
+	 * @return the response headers
+	 */
+	public List<String> getResponseHeaders() {
+		return responseHeaders;
+	}
+
+	/**
+	 * Sets the response headers.
+	 *
+	 * @param responseHeaders the new response headers
+	 */
+	public void setResponseHeaders(List<String> responseHeaders) {
+		this.responseHeaders = (responseHeaders != null) ? responseHeaders : new ArrayList<String>();
+	}
+
+	/**
+	 * Checks if is write fetch metadata.
+	 *
+	 * @return true, if is write fetch metadata
+	 */
+	public boolean isWriteFetchMetadata() {
+		return writeFetchMetadata;
+	}
+
+	/**
+	 * Sets the write fetch metadata.
+	 *
+	 * @param writeFetchMetadata the new write fetch metadata
+	 */
+	public void setWriteFetchMetadata(boolean writeFetchMetadata) {
+		this.writeFetchMetadata = writeFetchMetadata;
+	}
+
+	/**
+	 * Gets the revisit digest cache size.
+	 *
+	 * @return the revisit digest cache size
+	 */
+	public int getRevisitDigestCacheSize() {
+		return revisitDigestCacheSize;
+	}
+
+	/**
+	 * Sets the revisit digest cache size.
+	 *
+	 * @param revisitDigestCacheSize the new revisit digest cache size
+	 */
+	public void setRevisitDigestCacheSize(int revisitDigestCacheSize) {
+		this.revisitDigestCacheSize = revisitDigestCacheSize;
+	}
+
+	/**
+	 * Gets the timestamp policy.
+	 *
+	 * @return the timestamp policy
+	 */
+	public TimestampPolicy getTimestampPolicy() {
+		return timestampPolicy;
+	}
+
+	/**
+	 * Sets the timestamp policy.
+	 *
+	 * @param timestampPolicy the new timestamp policy
+	 */
+	public void setTimestampPolicy(TimestampPolicy timestampPolicy) {
+		Preconditions.checkArgument(timestampPolicy != null, "timestampPolicy can't be null");
+		this.timestampPolicy = timestampPolicy;
+	}
+
+	/**
+	 * Gets the crawl epoch.
+	 *
+	 * @return the crawl epoch
+	 */
+	public long getCrawlEpoch() {
+		return crawlEpoch;
+	}
+
+	/**
+	 * Sets the crawl epoch.
+	 *
+	 * @param crawlEpoch the new crawl epoch
+	 */
+	public void setCrawlEpoch(long crawlEpoch) {
+		this.crawlEpoch = crawlEpoch;
+	}
+
+	/**
+	 * Gets the content max versions.
+	 *
+	 * @return the content max versions, or 0 to leave them as they are
+	 */
+	public int getContentMaxVersions() {
+		return contentMaxVersions;
+	}
+
+	/**
+	 * Sets the content max versions.
+	 *
+	 * @param contentMaxVersions the new content max versions, 0 to leave them as they are
+	 */
+	public void setContentMaxVersions(int contentMaxVersions) {
+		Preconditions.checkArgument(contentMaxVersions >= 0, "contentMaxVersions must not be negative");
+		this.contentMaxVersions = contentMaxVersions;
+	}
+
+	/**
+	 * Gets the curi max versions.
+	 *
+	 * @return the curi max versions, or 0 to leave them as they are
+	 */
+	public int getCuriMaxVersions() {
+		return curiMaxVersions;
+	}
+
+	/**
+	 * Sets the curi max versions.
+	 *
+	 * @param curiMaxVersions the new curi max versions, 0 to leave them as they are
+	 */
+	public void setCuriMaxVersions(int curiMaxVersions) {
+		Preconditions.checkArgument(curiMaxVersions >= 0, "curiMaxVersions must not be negative");
+		this.curiMaxVersions = curiMaxVersions;
+	}
+
+	/**
+	 * Gets the metrics registry.
+	 *
+	 * @return the metrics registry
+	 */
+	public MetricsRegistry getMetricsRegistry() {
+		return metricsRegistry;
+	}
+
+	/**
+	 * Sets the metrics registry.
+	 *
+	 * @param metricsRegistry the new metrics registry
+	 */
+	public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		this.metricsRegistry = metricsRegistry;
+	}
+
+	/**
+	 * Checks if is jmx enabled.
+	 *
+	 * @return true, if is jmx enabled
+	 */
+	public boolean isJmxEnabled() {
+		return jmxEnabled;
+	}
+
+	/**
+	 * Sets the jmx enabled.
+	 *
+	 * @param jmxEnabled the new jmx enabled
+	 */
+	public void setJmxEnabled(boolean jmxEnabled) {
+		this.jmxEnabled = jmxEnabled;
+	}
+
+	/**
+	 * Gets the slow borrow threshold ms.
+	 *
+	 * @return the slow borrow threshold ms
+	 */
+	public long getSlowBorrowThresholdMs() {
+		return slowBorrowThresholdMs;
+	}
+
+	/**
+	 * Sets the slow borrow threshold ms.
+	 *
+	 * @param slowBorrowThresholdMs the new slow borrow threshold ms
+	 */
+	public void setSlowBorrowThresholdMs(long slowBorrowThresholdMs) {
+		this.slowBorrowThresholdMs = slowBorrowThresholdMs;
+	}
+
+	/**
+	 * Gets the pool summary interval ms.
+	 *
+	 * @return the pool summary interval ms
+	 */
+	public long getPoolSummaryIntervalMs() {
+		return poolSummaryIntervalMs;
+	}
+
+	/**
+	 * Sets the pool summary interval ms.
+	 *
+	 * @param poolSummaryIntervalMs the new pool summary interval ms
+	 */
+	public void setPoolSummaryIntervalMs(long poolSummaryIntervalMs) {
+		this.poolSummaryIntervalMs = poolSummaryIntervalMs;
+	}
+
+	/**
+	 * Gets the writer affinity.
+	 *
+	 * @return the writer affinity
+	 */
+	public WriterAffinity getWriterAffinity() {
+		return writerAffinity;
+	}
+
+	/**
+	 * Sets the writer affinity.
+	 *
+	 * @param writerAffinity the new writer affinity
+	 */
+	public void setWriterAffinity(WriterAffinity writerAffinity) {
+		Preconditions.checkArgument(writerAffinity != null, "writerAffinity can't be null");
+		this.writerAffinity = writerAffinity;
+	}
+
+	/**
+	 * Gets the writer stripes.
+	 *
+	 * @return the writer stripes
+	 */
+	public int getWriterStripes() {
+		return writerStripes;
+	}
+
+	/**
+	 * Sets the writer stripes.
+	 *
+	 * @param writerStripes the new writer stripes
+	 */
+	public void setWriterStripes(int writerStripes) {
+		this.writerStripes = writerStripes;
+	}
+
+	/**
+	 * Gets the lookup pool size.
+	 *
+	 * @return the lookup pool size
+	 */
+	public int getLookupPoolSize() {
+		return lookupPoolSize;
+	}
+
+	/**
+	 * Sets the lookup pool size.
+	 *
+	 * @param lookupPoolSize the new lookup pool size
+	 */
+	public void setLookupPoolSize(int lookupPoolSize) {
+		Preconditions.checkArgument(lookupPoolSize > 0, "lookupPoolSize must be positive");
+		this.lookupPoolSize = lookupPoolSize;
+	}
+
+	/**
+	 * Gets the lookup rpc timeout ms.
+	 *
+	 * @return the lookup rpc timeout ms
+	 */
+	public long getLookupRpcTimeoutMs() {
+		return lookupRpcTimeoutMs;
+	}
+
+	/**
+	 * Sets the lookup rpc timeout ms.
+	 *
+	 * @param lookupRpcTimeoutMs the new lookup rpc timeout ms
+	 */
+	public void setLookupRpcTimeoutMs(long lookupRpcTimeoutMs) {
+		this.lookupRpcTimeoutMs = lookupRpcTimeoutMs;
+	}
+
+	/**
+	 * Gets the lookup retries.
+	 *
+	 * @return the lookup retries
+	 */
+	public int getLookupRetries() {
+		return lookupRetries;
+	}
+
+	/**
+	 * Sets the lookup retries.
+	 *
+	 * @param lookupRetries the new lookup retries
+	 */
+	public void setLookupRetries(int lookupRetries) {
+		this.lookupRetries = lookupRetries;
+	}
+
+	/**
+	 * Gets the lookup borrow timeout ms.
+	 *
+	 * @return the lookup borrow timeout ms
+	 */
+	public long getLookupBorrowTimeoutMs() {
+		return lookupBorrowTimeoutMs;
+	}
+
+	/**
+	 * Sets the lookup borrow timeout ms.
+	 *
+	 * @param lookupBorrowTimeoutMs the new lookup borrow timeout ms
+	 */
+	public void setLookupBorrowTimeoutMs(long lookupBorrowTimeoutMs) {
+		this.lookupBorrowTimeoutMs = lookupBorrowTimeoutMs;
+	}
+
+	/**
+	 * Checks if is flow control enabled.
+	 *
+	 * @return true, if is flow control enabled
+	 */
+	public boolean isFlowControlEnabled() {
+		return flowControlEnabled;
+	}
+
+	/**
+	 * Sets the flow control enabled.
+	 *
+	 * @param flowControlEnabled the new flow control enabled
+	 */
+	public void setFlowControlEnabled(boolean flowControlEnabled) {
+		this.flowControlEnabled = flowControlEnabled;
+	}
+
+	/**
+	 * Gets the target put latency ms.
+	 *
+	 * @return the target put latency ms
+	 */
+	public long getTargetPutLatencyMs() {
+		return targetPutLatencyMs;
+	}
+
+	/**
+	 * Sets the target put latency ms.
+	 *
+	 * @param targetPutLatencyMs the new target put latency ms
+	 */
+	public void setTargetPutLatencyMs(long targetPutLatencyMs) {
+		this.targetPutLatencyMs = targetPutLatencyMs;
+	}
+
+	/**
+	 * Gets the flow control initial window bytes.
+	 *
+	 * @return the flow control initial window bytes
+	 */
+	public long getFlowControlInitialWindowBytes() {
+		return flowControlInitialWindowBytes;
+	}
+
+	/**
+	 * Sets the flow control initial window bytes.
+	 *
+	 * @param flowControlInitialWindowBytes the new flow control initial window bytes
+	 */
+	public void setFlowControlInitialWindowBytes(long flowControlInitialWindowBytes) {
+		this.flowControlInitialWindowBytes = flowControlInitialWindowBytes;
+	}
+
+	/**
+	 * Gets the flow control min window bytes.
+	 *
+	 * @return the flow control min window bytes
+	 */
+	public long getFlowControlMinWindowBytes() {
+		return flowControlMinWindowBytes;
+	}
+
+	/**
+	 * Sets the flow control min window bytes.
+	 *
+	 * @param flowControlMinWindowBytes the new flow control min window bytes
+	 */
+	public void setFlowControlMinWindowBytes(long flowControlMinWindowBytes) {
+		this.flowControlMinWindowBytes = flowControlMinWindowBytes;
+	}
+
+	/**
+	 * Gets the flow control max window bytes.
+	 *
+	 * @return the flow control max window bytes
+	 */
+	public long getFlowControlMaxWindowBytes() {
+		return flowControlMaxWindowBytes;
+	}
+
+	/**
+	 * Sets the flow control max window bytes.
+	 *
+	 * @param flowControlMaxWindowBytes the new flow control max window bytes
+	 */
+	public void setFlowControlMaxWindowBytes(long flowControlMaxWindowBytes) {
+		this.flowControlMaxWindowBytes = flowControlMaxWindowBytes;
+	}
+
+	/**
+	 * Gets the max backpressure delay ms.
+	 *
+	 * @return the max backpressure delay ms
+	 */
+	public long getMaxBackpressureDelayMs() {
+		return maxBackpressureDelayMs;
+	}
+
+	/**
+	 * Sets the max backpressure delay ms.
+	 *
+	 * @param maxBackpressureDelayMs the new max backpressure delay ms
+	 */
+	public void setMaxBackpressureDelayMs(long maxBackpressureDelayMs) {
+		this.maxBackpressureDelayMs = maxBackpressureDelayMs;
+	}
+
+	/**
+	 * Gets the write retries.
+	 *
+	 * @return the write retries
+	 */
+	public int getWriteRetries() {
+		return writeRetries;
+	}
+
+	/**
+	 * Sets the write retries.
+	 *
+	 * @param writeRetries the new write retries
+	 */
+	public void setWriteRetries(int writeRetries) {
+		this.writeRetries = writeRetries;
+	}
+
+	/**
+	 * Gets the retry base delay ms.
+	 *
+	 * @return the retry base delay ms
+	 */
+	public long getRetryBaseDelayMs() {
+		return retryBaseDelayMs;
+	}
+
+	/**
+	 * Sets the retry base delay ms.
+	 *
+	 * @param retryBaseDelayMs the new retry base delay ms
+	 */
+	public void setRetryBaseDelayMs(long retryBaseDelayMs) {
+		this.retryBaseDelayMs = retryBaseDelayMs;
+	}
+
+	/**
+	 * Gets the retry max delay ms.
+	 *
+	 * @return the retry max delay ms
+	 */
+	public long getRetryMaxDelayMs() {
+		return retryMaxDelayMs;
+	}
+
+	/**
+	 * Sets the retry max delay ms.
+	 *
+	 * @param retryMaxDelayMs the new retry max delay ms
+	 */
+	public void setRetryMaxDelayMs(long retryMaxDelayMs) {
+		this.retryMaxDelayMs = retryMaxDelayMs;
+	}
+
+	/**
+	 * Gets the circuit breaker failure threshold.
+	 *
+	 * @return the circuit breaker failure threshold
+	 */
+	public int getCircuitBreakerFailureThreshold() {
+		return circuitBreakerFailureThreshold;
+	}
+
+	/**
+	 * Sets the circuit breaker failure threshold.
+	 *
+	 * @param circuitBreakerFailureThreshold the new circuit breaker failure threshold
+	 */
+	public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+		this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+	}
+
+	/**
+	 * Gets the circuit breaker open ms.
+	 *
+	 * @return the circuit breaker open ms
+	 */
+	public long getCircuitBreakerOpenMs() {
+		return circuitBreakerOpenMs;
+	}
+
+	/**
+	 * Sets the circuit breaker open ms.
+	 *
+	 * @param circuitBreakerOpenMs the new circuit breaker open ms
+	 */
+	public void setCircuitBreakerOpenMs(long circuitBreakerOpenMs) {
+		this.circuitBreakerOpenMs = circuitBreakerOpenMs;
+	}
+
+	/**
+	 * Gets the failed put queue size.
+	 *
+	 * @return the failed put queue size
+	 */
+	public int getFailedPutQueueSize() {
+		return failedPutQueueSize;
+	}
+
+	/**
+	 * Sets the failed put queue size.
+	 *
+	 * @param failedPutQueueSize the new failed put queue size
+	 */
+	public void setFailedPutQueueSize(int failedPutQueueSize) {
+		this.failedPutQueueSize = failedPutQueueSize;
+	}
+
+	/**
+	 * Gets the failed put queue max bytes.
+	 *
+	 * @return the failed put queue max bytes
+	 */
+	public long getFailedPutQueueMaxBytes() {
+		return failedPutQueueMaxBytes;
+	}
+
+	/**
+	 * Sets the failed put queue max bytes. A failed put that would take the
+	 * heap size of the queued puts past this isn't queued.
+	 *
+	 * @param failedPutQueueMaxBytes the new failed put queue max bytes
+	 */
+	public void setFailedPutQueueMaxBytes(long failedPutQueueMaxBytes) {
+		Preconditions.checkArgument(failedPutQueueMaxBytes > 0);
+		this.failedPutQueueMaxBytes = failedPutQueueMaxBytes;
+	}
+
+	/**
+	 * Gets the failed put replay batch.
+	 *
+	 * @return the failed put replay batch
+	 */
+	public int getFailedPutReplayBatch() {
+		return failedPutReplayBatch;
+	}
+
+	/**
+	 * Sets the failed put replay batch.
+	 *
+	 * @param failedPutReplayBatch the new failed put replay batch
+	 */
+	public void setFailedPutReplayBatch(int failedPutReplayBatch) {
+		this.failedPutReplayBatch = failedPutReplayBatch;
+	}
+
+	/**
+	 * Gets the spool directory.
+	 *
+	 * @return the spool directory
+	 */
+	public String getSpoolDirectory() {
+		return spoolDirectory;
+	}
+
+	/**
+	 * Sets the spool directory. Puts that can't be written to HBase are
+	 * appended to a local spool in this directory and replayed later.
+	 *
+	 * @param spoolDirectory the new spool directory, or null for no spool
+	 */
+	public void setSpoolDirectory(String spoolDirectory) {
+		this.spoolDirectory = spoolDirectory;
+	}
+
+	/**
+	 * Gets the spool segment size bytes.
+	 *
+	 * @return the spool segment size bytes
+	 */
+	public int getSpoolSegmentSizeBytes() {
+		return spoolSegmentSizeBytes;
+	}
+
+	/**
+	 * Sets the spool segment size bytes.
+	 *
+	 * @param spoolSegmentSizeBytes the new spool segment size bytes
+	 */
+	public void setSpoolSegmentSizeBytes(int spoolSegmentSizeBytes) {
+		Preconditions.checkArgument(spoolSegmentSizeBytes > 0);
+		this.spoolSegmentSizeBytes = spoolSegmentSizeBytes;
+	}
+
+	/**
+	 * Gets the spool replay interval ms.
+	 *
+	 * @return the spool replay interval ms
+	 */
+	public long getSpoolReplayIntervalMs() {
+		return spoolReplayIntervalMs;
+	}
+
+	/**
+	 * Sets the spool replay interval ms.
+	 *
+	 * @param spoolReplayIntervalMs the new spool replay interval ms
+	 */
+	public void setSpoolReplayIntervalMs(long spoolReplayIntervalMs) {
+		Preconditions.checkArgument(spoolReplayIntervalMs > 0);
+		this.spoolReplayIntervalMs = spoolReplayIntervalMs;
+	}
+
+	/**
+	 * Gets the spool force bytes.
+	 *
+	 * @return the spool force bytes
+	 */
+	public long getSpoolForceBytes() {
+		return spoolForceBytes;
+	}
+
+	/**
+	 * Sets the spool force bytes. The active spool segment is forced to disk
+	 * once this many bytes were appended to it since it last was.
+	 *
+	 * @param spoolForceBytes the new spool force bytes
+	 */
+	public void setSpoolForceBytes(long spoolForceBytes) {
+		Preconditions.checkArgument(spoolForceBytes > 0);
+		this.spoolForceBytes = spoolForceBytes;
+	}
+
+	/**
+	 * Gets the spool force interval ms.
+	 *
+	 * @return the spool force interval ms
+	 */
+	public long getSpoolForceIntervalMs() {
+		return spoolForceIntervalMs;
+	}
+
+	/**
+	 * Sets the spool force interval ms. Records appended to the active spool
+	 * segment are forced to disk at the latest by the first append this long
+	 * after the last force.
+	 *
+	 * @param spoolForceIntervalMs the new spool force interval ms
+	 */
+	public void setSpoolForceIntervalMs(long spoolForceIntervalMs) {
+		Preconditions.checkArgument(spoolForceIntervalMs > 0);
+		this.spoolForceIntervalMs = spoolForceIntervalMs;
+	}
+
+	/**
+	 * Gets the bulk load directory.
+	 *
+	 * @return the bulk load directory
+	 */
+	public String getBulkLoadDirectory() {
+		return bulkLoadDirectory;
+	}
+
+	/**
+	 * Sets the bulk load directory. When set, the writers write HFiles to this
+	 * local or hdfs directory instead of sending puts to the region servers.
+	 *
+	 * @param bulkLoadDirectory the new bulk load directory, or null to write with puts
+	 */
+	public void setBulkLoadDirectory(String bulkLoadDirectory) {
+		this.bulkLoadDirectory = bulkLoadDirectory;
+	}
+
+	/**
+	 * Gets the bulk load buffer bytes.
+	 *
+	 * @return the bulk load buffer bytes
+	 */
+	public long getBulkLoadBufferBytes() {
+		return bulkLoadBufferBytes;
+	}
+
+	/**
+	 * Sets the bulk load buffer bytes.
+	 *
+	 * @param bulkLoadBufferBytes the new bulk load buffer bytes
+	 */
+	public void setBulkLoadBufferBytes(long bulkLoadBufferBytes) {
+		Preconditions.checkArgument(bulkLoadBufferBytes > 0);
+		this.bulkLoadBufferBytes = bulkLoadBufferBytes;
+	}
+
+	/**
+	 * Checks if writers load their HFiles when closed.
+	 *
+	 * @return true, if bulk load on close
+	 */
+	public boolean isBulkLoadOnClose() {
+		return bulkLoadOnClose;
+	}
+
+	/**
+	 * Sets whether writers load their HFiles when closed.
+	 *
+	 * @param bulkLoadOnClose the new bulk load on close
+	 */
+	public void setBulkLoadOnClose(boolean bulkLoadOnClose) {
+		this.bulkLoadOnClose = bulkLoadOnClose;
+	}
+
+	/**
+	 * Gets the content durability.
+	 *
+	 * @return the content durability
+	 */
+	public WriteDurability getContentDurability() {
+		return contentDurability;
+	}
+
+	/**
+	 * Sets the content durability.
+	 *
+	 * @param contentDurability the new content durability
+	 */
+	public void setContentDurability(WriteDurability contentDurability) {
+		Preconditions.checkArgument(contentDurability != null, "contentDurability can't be null");
+		this.contentDurability = contentDurability;
+	}
+
+	/**
+	 * Gets the curi durability.
+	 *
+	 * @return the curi durability
+	 */
+	public WriteDurability getCuriDurability() {
+		return curiDurability;
+	}
+
+	/**
+	 * Sets the curi durability.
+	 *
+	 * @param curiDurability the new curi durability
+	 */
+	public void setCuriDurability(WriteDurability curiDurability) {
+		Preconditions.checkArgument(curiDurability != null, "curiDurability can't be null");
+		this.curiDurability = curiDurability;
+	}
+
+	/**
+	 * Gets the region batch bytes.
+	 *
+	 * @return the region batch bytes
+	 */
+	public long getRegionBatchBytes() {
+		return regionBatchBytes;
+	}
+
+	/**
+	 * Sets the region batch bytes. When above 0, each writer groups its puts by
+	 * region and writes a region's group once it reaches this size, instead
+	 * of using the client side write buffer.
+	 *
+	 * @param regionBatchBytes the new region batch bytes, 0 for no region batching
+	 */
+	public void setRegionBatchBytes(long regionBatchBytes) {
+		Preconditions.checkArgument(regionBatchBytes >= 0);
+		this.regionBatchBytes = regionBatchBytes;
+	}
+
+	/**
+	 * Gets the region batch max delay ms.
+	 *
+	 * @return the region batch max delay ms
+	 */
+	public long getRegionBatchMaxDelayMs() {
+		return regionBatchMaxDelayMs;
+	}
+
+	/**
+	 * Sets the region batch max delay ms.
+	 *
+	 * @param regionBatchMaxDelayMs the new region batch max delay ms
+	 */
+	public void setRegionBatchMaxDelayMs(long regionBatchMaxDelayMs) {
+		Preconditions.checkArgument(regionBatchMaxDelayMs >= 0);
+		this.regionBatchMaxDelayMs = regionBatchMaxDelayMs;
+	}
+
+	/**
+	 * Checks if bodies spilled to disk by the Recorder are read by memory
+	 * mapping.
+	 *
+	 * @return true, if mapped replay is enabled
+	 */
+	public boolean isMappedReplayEnabled() {
+		return mappedReplayEnabled;
+	}
+
+	/**
+	 * Sets whether bodies spilled to disk by the Recorder are read by memory
+	 * mapping.
+	 *
+	 * @param mappedReplayEnabled the new mapped replay enabled
+	 */
+	public void setMappedReplayEnabled(boolean mappedReplayEnabled) {
+		this.mappedReplayEnabled = mappedReplayEnabled;
+	}
+
+	/**
+	 * Gets the mapped replay min bytes.
+	 *
+	 * @return the mapped replay min bytes
+	 */
+	public int getMappedReplayMinBytes() {
+		return mappedReplayMinBytes;
+	}
+
+	/**
+	 * Sets the mapped replay min bytes.
+	 *
+	 * @param mappedReplayMinBytes the new mapped replay min bytes
+	 */
+	public void setMappedReplayMinBytes(int mappedReplayMinBytes) {
+		Preconditions.checkArgument(mappedReplayMinBytes >= 0);
+		this.mappedReplayMinBytes = mappedReplayMinBytes;
+	}
+
+	/**
+	 * Gets the content processors.
+	 *
+	 * @return the content processors
+	 */
+	public List<ContentProcessor> getContentProcessors() {
+		return contentProcessors;
+	}
+
+	/**
+	 * Sets the content processors, run in parallel over each response body
+	 * and each adding its own columns to the record.
+	 *
+	 * @param contentProcessors the new content processors
+	 */
+	public void setContentProcessors(List<ContentProcessor> contentProcessors) {
+		this.contentProcessors = (contentProcessors != null) ? contentProcessors : new ArrayList<ContentProcessor>();
+	}
+
+	/**
+	 * Gets the content processor threads.
+	 *
+	 * @return the content processor threads
+	 */
+	public int getContentProcessorThreads() {
+		return contentProcessorThreads;
+	}
+
+	/**
+	 * Sets the content processor threads, 0 to run the content processors on
+	 * the writing thread.
+	 *
+	 * @param contentProcessorThreads the new content processor threads
+	 */
+	public void setContentProcessorThreads(int contentProcessorThreads) {
+		Preconditions.checkArgument(contentProcessorThreads >= 0);
+		this.contentProcessorThreads = contentProcessorThreads;
+	}
+
+	/**
+	 * Gets the content processor timeout ms.
+	 *
+	 * @return the content processor timeout ms
+	 */
+	public long getContentProcessorTimeoutMs() {
+		return contentProcessorTimeoutMs;
+	}
+
+	/**
+	 * Sets the content processor timeout ms.
+	 *
+	 * @param contentProcessorTimeoutMs the new content processor timeout ms
+	 */
+	public void setContentProcessorTimeoutMs(long contentProcessorTimeoutMs) {
+		Preconditions.checkArgument(contentProcessorTimeoutMs > 0);
+		this.contentProcessorTimeoutMs = contentProcessorTimeoutMs;
+	}
+
+	/**
+	 * Checks if enrichment is deferred.
+	 *
+	 * @return true, if the content processors run after the raw row is written
+	 */
+	public boolean isDeferredEnrichment() {
+		return deferredEnrichment;
+	}
+
+	/**
+	 * Sets whether enrichment is deferred. If true, the raw row is written
+	 * straight away and the content processors' columns are written later,
+	 * by a background stage.
+	 *
+	 * @param deferredEnrichment the new deferred enrichment
+	 */
+	public void setDeferredEnrichment(boolean deferredEnrichment) {
+		this.deferredEnrichment = deferredEnrichment;
+	}
+
+	/**
+	 * Gets the enrichment queue size.
+	 *
+	 * @return the enrichment queue size
+	 */
+	public int getEnrichmentQueueSize() {
+		return enrichmentQueueSize;
+	}
+
+	/**
+	 * Sets the enrichment queue size.
+	 *
+	 * @param enrichmentQueueSize the new enrichment queue size
+	 */
+	public void setEnrichmentQueueSize(int enrichmentQueueSize) {
+		Preconditions.checkArgument(enrichmentQueueSize > 0);
+		this.enrichmentQueueSize = enrichmentQueueSize;
+	}
+
+	/**
+	 * Gets the enrichment max backlog bytes.
+	 *
+	 * @return the enrichment max backlog bytes
+	 */
+	public long getEnrichmentMaxBacklogBytes() {
+		return enrichmentMaxBacklogBytes;
+	}
+
+	/**
+	 * Sets the enrichment max backlog bytes.
+	 *
+	 * @param enrichmentMaxBacklogBytes the new enrichment max backlog bytes
+	 */
+	public void setEnrichmentMaxBacklogBytes(long enrichmentMaxBacklogBytes) {
+		Preconditions.checkArgument(enrichmentMaxBacklogBytes > 0);
+		this.enrichmentMaxBacklogBytes = enrichmentMaxBacklogBytes;
+	}
+
+	/**
+	 * Gets the enrichment batch size.
+	 *
+	 * @return the enrichment batch size
+	 */
+	public int getEnrichmentBatchSize() {
+		return enrichmentBatchSize;
+	}
+
+	/**
+	 * Sets the enrichment batch size.
+	 *
+	 * @param enrichmentBatchSize the new enrichment batch size
+	 */
+	public void setEnrichmentBatchSize(int enrichmentBatchSize) {
+		Preconditions.checkArgument(enrichmentBatchSize > 0);
+		this.enrichmentBatchSize = enrichmentBatchSize;
+	}
+
+	/**
+	 * Gets the enrichment flush interval ms.
+	 *
+	 * @return the enrichment flush interval ms
+	 */
+	public long getEnrichmentFlushIntervalMs() {
+		return enrichmentFlushIntervalMs;
+	}
+
+	/**
+	 * Sets the enrichment flush interval ms.
+	 *
+	 * @param enrichmentFlushIntervalMs the new enrichment flush interval ms
+	 */
+	public void setEnrichmentFlushIntervalMs(long enrichmentFlushIntervalMs) {
+		Preconditions.checkArgument(enrichmentFlushIntervalMs > 0);
+		this.enrichmentFlushIntervalMs = enrichmentFlushIntervalMs;
+	}
+
+	/**
+	 * Gets the content sample rate.
+	 *
+	 * @return the content sample rate
+	 */
+	public double getContentSampleRate() {
+		return contentSampleRate;
+	}
+
+	/**
+	 * Sets the fraction of responses, from 0 to 1, whose content is written.
+	 * The curi metadata of every url is written regardless.
+	 *
+	 * @param contentSampleRate the new content sample rate
+	 */
+	public void setContentSampleRate(double contentSampleRate) {
+		Preconditions.checkArgument(contentSampleRate >= 0 && contentSampleRate <= 1);
+		this.contentSampleRate = contentSampleRate;
+	}
+
+	/**
+	 * Gets the content sampling.
+	 *
+	 * @return the content sampling
+	 */
+	public ContentSampling getContentSampling() {
+		return contentSampling;
+	}
+
+	/**
+	 * Sets what the content sample is drawn by.
+	 *
+	 * @param contentSampling the new content sampling
+	 */
+	public void setContentSampling(ContentSampling contentSampling) {
+		Preconditions.checkArgument(contentSampling != null);
+		this.contentSampling = contentSampling;
+	}
+
+	/**
+	 * Gets the host quota bytes.
+	 *
+	 * @return the host quota bytes
+	 */
+	public long getHostQuotaBytes() {
+		return hostQuotaBytes;
+	}
+
+	/**
+	 * Sets the bytes a host may write, 0 for no quota.
+	 *
+	 * @param hostQuotaBytes the new host quota bytes
+	 */
+	public void setHostQuotaBytes(long hostQuotaBytes) {
+		Preconditions.checkArgument(hostQuotaBytes >= 0);
+		this.hostQuotaBytes = hostQuotaBytes;
+	}
+
+	/**
+	 * Gets the host quota rows.
+	 *
+	 * @return the host quota rows
+	 */
+	public long getHostQuotaRows() {
+		return hostQuotaRows;
+	}
+
+	/**
+	 * Sets the rows a host may write, 0 for no quota.
+	 *
+	 * @param hostQuotaRows the new host quota rows
+	 */
+	public void setHostQuotaRows(long hostQuotaRows) {
+		Preconditions.checkArgument(hostQuotaRows >= 0);
+		this.hostQuotaRows = hostQuotaRows;
+	}
+
+	/**
+	 * Gets the host quota action.
+	 *
+	 * @return the host quota action
+	 */
+	public HostQuotaAction getHostQuotaAction() {
+		return hostQuotaAction;
+	}
+
+	/**
+	 * Sets what is done with the writes of a host past its quota.
+	 *
+	 * @param hostQuotaAction the new host quota action
+	 */
+	public void setHostQuotaAction(HostQuotaAction hostQuotaAction) {
+		Preconditions.checkArgument(hostQuotaAction != null);
+		this.hostQuotaAction = hostQuotaAction;
+	}
+
+	/**
+	 * Gets the large put threshold bytes.
+	 *
+	 * @return the large put threshold bytes
+	 */
+	public long getLargePutThresholdBytes() {
+		return largePutThresholdBytes;
+	}
+
+	/**
+	 * Sets the serialized size, the sum of the lengths of a put's KeyValues,
+	 * from which puts bypass the write buffer and region batches and are
+	 * written on their own, 0 to batch all puts.
+	 *
+	 * @param largePutThresholdBytes the new large put threshold bytes
+	 */
+	public void setLargePutThresholdBytes(long largePutThresholdBytes) {
+		Preconditions.checkArgument(largePutThresholdBytes >= 0);
+		this.largePutThresholdBytes = largePutThresholdBytes;
+	}
+
+	/**
+	 * Gets the large put concurrency.
+	 *
+	 * @return the large put concurrency
+	 */
+	public int getLargePutConcurrency() {
+		return largePutConcurrency;
+	}
+
+	/**
+	 * Sets the number of large puts the writers of a pool write at once.
+	 *
+	 * @param largePutConcurrency the new large put concurrency
+	 */
+	public void setLargePutConcurrency(int largePutConcurrency) {
+		Preconditions.checkArgument(largePutConcurrency > 0);
+		this.largePutConcurrency = largePutConcurrency;
+	}
+
+	/**
+	 * Gets the request capture.
+	 *
+	 * @return the request capture
+	 */
+	public RequestCapture getRequestCapture() {
+		return requestCapture;
+	}
+
+	/**
+	 * Sets how the request of each uri is kept in the request column.
+	 *
+	 * @param requestCapture the new request capture
+	 */
+	public void setRequestCapture(RequestCapture requestCapture) {
+		Preconditions.checkArgument(requestCapture != null);
+		this.requestCapture = requestCapture;
+	}
+
 	/**
 	 * Gets the default max file size in bytes.
 	 *
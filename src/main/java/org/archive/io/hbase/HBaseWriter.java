@@ -508,19 +508,40 @@ package org.archive.io.hbase;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Keying;
 import org.apache.hadoop.io.IOUtils;
@@ -541,13 +562,79 @@ import com.google.common.base.Preconditions;
 public class HBaseWriter extends WriterPoolMember implements Serializer {
 
 	/** The log. */
-	Logger log = Logger.getLogger(HBaseWriter.class.getName());
+	private static final Logger log = Logger.getLogger(HBaseWriter.class.getName());
 	
 	/** The hbase options. */
 	private HBaseParameters hbaseOptions;
 	
 	/** The client. */
-	private final HTable client;
+	private HTable client;
+
+	/**
+	 * The client of the separate content table, or the same object as client
+	 * when content and metadata share one table.
+	 */
+	private HTable contentClient;
+
+	/** The digests already looked up for revisit checks. */
+	private RevisitDigestCache revisitDigestCache;
+
+	/** The metrics. */
+	private HBaseWriterMetrics metrics;
+
+	/** The read only clients used for revisit checks, if any. */
+	private HBaseLookupPool lookupPool;
+
+	/** The flow controller limiting the bytes in flight, if any. */
+	private WriteFlowController flowController;
+
+	/** The circuit breaker of the regions written to. */
+	private RegionCircuitBreaker circuitBreaker;
+
+	/** The puts waiting to be tried again. */
+	private FailedPutQueue failedPutQueue;
+
+	/** The local spool of puts HBase can't take, if any. */
+	private LocalSpool spool;
+
+	/** The region batcher, if region batching is on. */
+	private RegionGroupedBatcher batcher;
+
+	/** The content processors run over each response body, if any. */
+	private ContentProcessorPipeline contentProcessors;
+
+	/** The stage enriching written rows, if enrichment is deferred. */
+	private EnrichmentStage enrichmentStage;
+
+	/** The permits of the large put path, if large puts are written on their own. */
+	private Semaphore largePutPermits;
+
+	/** The unbuffered clients large puts are written through, by table client. */
+	private final Map<HTable, HTable> largePutClients = new HashMap<HTable, HTable>();
+
+	/**
+	 * Held while the writer writes or is flushed, so the pool can flush a
+	 * writer another thread may be using.
+	 */
+	private final ReentrantLock writeLock = new ReentrantLock();
+
+	/** The template requests are encoded against, in TEMPLATE request capture. */
+	private RequestTemplateCodec requestTemplateCodec = new RequestTemplateCodec();
+
+	/** Whether a subclass overrides the stream content processing hook. */
+	private final boolean overridesStreamHook = overridesHook(Put.class, ReplayInputStream.class, int.class);
+
+	/** Whether a subclass overrides the buffer content processing hook. */
+	private final boolean overridesBufferHook = overridesHook(Put.class, ByteBuffer.class);
+
+	/** The scratch space the metadata cells are encoded in. */
+	private final KeyValueArena metadataArena = new KeyValueArena();
+
+	/** The bytes of the family and column names, by name. */
+	private final Map<String, byte[]> columnBytes = new HashMap<String, byte[]>();
+
+	/** The column names of the response headers, by header name. */
+	private final Map<String, String> responseHeaderColumns = new HashMap<String, String>();
 
 	/**
 	 * Gets the hbase options.
@@ -567,6 +654,233 @@ public class HBaseWriter extends WriterPoolMember implements Serializer {
 	public HTable getClient() {
 		return client;
 	}
+
+	/**
+	 * Gets the content client.
+	 *
+	 * @return the content client
+	 */
+	public HTable getContentClient() {
+		return contentClient;
+	}
+
+	/**
+	 * Gets the revisit digest cache.
+	 *
+	 * @return the revisit digest cache
+	 */
+	public RevisitDigestCache getRevisitDigestCache() {
+		return revisitDigestCache;
+	}
+
+	/**
+	 * Sets the revisit digest cache. The writer pool uses this to share one
+	 * cache between all of its writers.
+	 *
+	 * @param revisitDigestCache the new revisit digest cache
+	 */
+	public void setRevisitDigestCache(RevisitDigestCache revisitDigestCache) {
+		this.revisitDigestCache = revisitDigestCache;
+	}
+
+	/**
+	 * Gets the metrics.
+	 *
+	 * @return the metrics
+	 */
+	public HBaseWriterMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics. The writer pool uses this to share one set of metrics
+	 * between all of its writers.
+	 *
+	 * @param metrics the new metrics
+	 */
+	public void setMetrics(HBaseWriterMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Gets the lookup pool.
+	 *
+	 * @return the lookup pool
+	 */
+	public HBaseLookupPool getLookupPool() {
+		return lookupPool;
+	}
+
+	/**
+	 * Sets the lookup pool. If set, revisit checks read through it instead of
+	 * this writer's own table client.
+	 *
+	 * @param lookupPool the new lookup pool
+	 */
+	public void setLookupPool(HBaseLookupPool lookupPool) {
+		this.lookupPool = lookupPool;
+	}
+
+	/**
+	 * Gets the flow controller.
+	 *
+	 * @return the flow controller
+	 */
+	public WriteFlowController getFlowController() {
+		return flowController;
+	}
+
+	/**
+	 * Sets the flow controller. The writer pool uses this to share one window
+	 * between all of its writers.
+	 *
+	 * @param flowController the new flow controller
+	 */
+	public void setFlowController(WriteFlowController flowController) {
+		this.flowController = flowController;
+	}
+
+	/**
+	 * Gets the circuit breaker.
+	 *
+	 * @return the circuit breaker
+	 */
+	public RegionCircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Sets the circuit breaker. The writer pool uses this to share one
+	 * circuit breaker between all of its writers.
+	 *
+	 * @param circuitBreaker the new circuit breaker
+	 */
+	public void setCircuitBreaker(RegionCircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * Gets the failed put queue.
+	 *
+	 * @return the failed put queue
+	 */
+	public FailedPutQueue getFailedPutQueue() {
+		return failedPutQueue;
+	}
+
+	/**
+	 * Sets the failed put queue. The writer pool uses this to share one queue
+	 * between all of its writers.
+	 *
+	 * @param failedPutQueue the new failed put queue
+	 */
+	public void setFailedPutQueue(FailedPutQueue failedPutQueue) {
+		this.failedPutQueue = failedPutQueue;
+	}
+
+	/**
+	 * Gets the local spool.
+	 *
+	 * @return the local spool, or null if there is none
+	 */
+	public LocalSpool getSpool() {
+		return spool;
+	}
+
+	/**
+	 * Sets the local spool. The writer pool uses this to share one spool, and
+	 * its replayer, between all of its writers.
+	 *
+	 * @param spool the new local spool
+	 */
+	public void setSpool(LocalSpool spool) {
+		this.spool = spool;
+	}
+
+	/**
+	 * Gets the content processors.
+	 *
+	 * @return the content processor pipeline, or null if none are registered
+	 */
+	public ContentProcessorPipeline getContentProcessors() {
+		return contentProcessors;
+	}
+
+	/**
+	 * Sets the content processors. The writer pool uses this to share one
+	 * pipeline, and its worker threads, between all of its writers.
+	 *
+	 * @param contentProcessors the new content processor pipeline
+	 */
+	public void setContentProcessors(ContentProcessorPipeline contentProcessors) {
+		this.contentProcessors = contentProcessors;
+	}
+
+	/**
+	 * Gets the enrichment stage.
+	 *
+	 * @return the enrichment stage, or null if enrichment isn't deferred
+	 */
+	public EnrichmentStage getEnrichmentStage() {
+		return enrichmentStage;
+	}
+
+	/**
+	 * Sets the enrichment stage. When set, the content processors run on it
+	 * after the raw row is written, instead of before.
+	 *
+	 * @param enrichmentStage the new enrichment stage
+	 */
+	public void setEnrichmentStage(EnrichmentStage enrichmentStage) {
+		this.enrichmentStage = enrichmentStage;
+	}
+
+	/**
+	 * Gets the large put permits.
+	 *
+	 * @return the large put permits, or null if all puts are batched
+	 */
+	public Semaphore getLargePutPermits() {
+		return largePutPermits;
+	}
+
+	/**
+	 * Sets the large put permits. The writer pool uses this to limit how many
+	 * large puts all of its writers write at once.
+	 *
+	 * @param largePutPermits the new large put permits
+	 */
+	public void setLargePutPermits(Semaphore largePutPermits) {
+		this.largePutPermits = largePutPermits;
+	}
+
+	/**
+	 * Gets the request template codec.
+	 *
+	 * @return the request template codec
+	 */
+	public RequestTemplateCodec getRequestTemplateCodec() {
+		return requestTemplateCodec;
+	}
+
+	/**
+	 * Sets the request template codec. The writer pool uses this so all of
+	 * its writers encode requests against one template.
+	 *
+	 * @param requestTemplateCodec the new request template codec
+	 */
+	public void setRequestTemplateCodec(RequestTemplateCodec requestTemplateCodec) {
+		this.requestTemplateCodec = requestTemplateCodec;
+	}
+
+	/**
+	 * Gets the region batcher.
+	 *
+	 * @return the region batcher, or null if region batching is off
+	 */
+	public RegionGroupedBatcher getBatcher() {
+		return batcher;
+	}
 	
 	/**
 	 * Instantiates a new h base writer.
@@ -578,28 +892,81 @@ public class HBaseWriter extends WriterPoolMember implements Serializer {
 	 */
 	public HBaseWriter(AtomicInteger serialNo, final WriterPoolSettings settings, HBaseParameters parameters) throws IOException {
 		// Instantiates a new HBaseWriter for the WriterPool to use in heritrix.
+		this(serialNo, settings, parameters, null, null);
+
+		Configuration hbaseConfiguration = createHBaseConfiguration(hbaseOptions);
+
+		// create a crawl table
+		initializeCrawlTable(hbaseConfiguration, hbaseOptions.getHbaseTableName());
+		this.client = new HTable(hbaseConfiguration, hbaseOptions.getHbaseTableName());
+		configureWriteBuffer(this.client, hbaseOptions.getWriteBufferSize());
+
+		// create the content table, if content is kept apart from the metadata
+		if (hbaseOptions.isSeparateContentTable()) {
+			initializeContentTable(hbaseConfiguration, hbaseOptions.getContentTableName());
+			this.contentClient = new HTable(hbaseConfiguration, hbaseOptions.getContentTableName());
+			configureWriteBuffer(this.contentClient, hbaseOptions.getContentWriteBufferSize());
+		} else {
+			this.contentClient = this.client;
+		}
+	}
+
+	/**
+	 * Instantiates a new h base writer on the given table clients, without
+	 * creating or checking the tables. Used by subclasses and tests that
+	 * supply their own clients.
+	 *
+	 * @param serialNo the serial no
+	 * @param settings the settings
+	 * @param parameters the parameters
+	 * @param client the client
+	 * @param contentClient the content client, the same object as client when
+	 *            content and metadata share one table
+	 */
+	protected HBaseWriter(AtomicInteger serialNo, final WriterPoolSettings settings, HBaseParameters parameters, HTable client, HTable contentClient) {
 		super(serialNo, settings, null);
 
 		Preconditions.checkArgument(parameters != null);
+		Preconditions.checkArgument(parameters.getTimestampPolicy() != TimestampPolicy.CRAWL_EPOCH || parameters.getCrawlEpoch() > 0,
+				"The CRAWL_EPOCH timestampPolicy needs an explicit crawlEpoch");
 		this.hbaseOptions = parameters;
+		this.client = client;
+		this.contentClient = contentClient;
+		this.revisitDigestCache = new RevisitDigestCache(hbaseOptions.getRevisitDigestCacheSize());
+		this.metrics = new HBaseWriterMetrics(hbaseOptions.getMetricsRegistry());
+		this.circuitBreaker = new RegionCircuitBreaker(hbaseOptions.getCircuitBreakerFailureThreshold(), hbaseOptions.getCircuitBreakerOpenMs());
+		this.failedPutQueue = new FailedPutQueue(hbaseOptions.getFailedPutQueueSize(), hbaseOptions.getFailedPutQueueMaxBytes());
+		if (hbaseOptions.getRegionBatchBytes() > 0) {
+			this.batcher = new RegionGroupedBatcher(hbaseOptions.getRegionBatchBytes(), hbaseOptions.getRegionBatchMaxDelayMs());
+		}
+	}
 
+	/**
+	 * Creates a hbase client configuration pointing at the zookeeper quorum of
+	 * the given parameters.
+	 * 
+	 * @param parameters
+	 *            the parameters
+	 * 
+	 * @return the hbase configuration
+	 */
+	public static Configuration createHBaseConfiguration(final HBaseParameters parameters) {
 		Configuration hbaseConfiguration = HBaseConfiguration.create();
 
 		// set the zk quorum list
-		log.info("setting zookeeper quorum to : " + hbaseOptions.getZkQuorum());
-		hbaseConfiguration.setStrings(HConstants.ZOOKEEPER_QUORUM, hbaseOptions.getZkQuorum().split(","));
+		log.info("setting zookeeper quorum to : " + parameters.getZkQuorum());
+		hbaseConfiguration.setStrings(HConstants.ZOOKEEPER_QUORUM, parameters.getZkQuorum().split(","));
 
 		// set the client port
-		log.info("setting zookeeper client Port to : " + hbaseOptions.getZkPort());
-		hbaseConfiguration.setInt(getHbaseOptions().getZookeeperClientPortKey(), hbaseOptions.getZkPort());
+		log.info("setting zookeeper client Port to : " + parameters.getZkPort());
+		hbaseConfiguration.setInt(parameters.getZookeeperClientPortKey(), parameters.getZkPort());
 
-		// create a crawl table
-		initializeCrawlTable(hbaseConfiguration, hbaseOptions.getHbaseTableName());
-		this.client = new HTable(hbaseConfiguration, hbaseOptions.getHbaseTableName());
+		return hbaseConfiguration;
 	}
 
 	/**
-	 * Creates the crawl table in HBase.
+	 * Creates the crawl table in HBase. When content is kept in a separate
+	 * table, the crawl table only holds the curi column family.
 	 * 
 	 * @param hbaseConfiguration
 	 *            the c
@@ -610,41 +977,58 @@ public class HBaseWriter extends WriterPoolMember implements Serializer {
 	 *             Signals that an I/O exception has occurred.
 	 */
 	protected void initializeCrawlTable(final Configuration hbaseConfiguration, final String hbaseTableName) throws IOException {
+		if (getHbaseOptions().isSeparateContentTable()) {
+			initializeTable(hbaseConfiguration, hbaseTableName, getHbaseOptions().getCuriColumnFamily());
+		} else {
+			initializeTable(hbaseConfiguration, hbaseTableName, getHbaseOptions().getContentColumnFamily(), getHbaseOptions().getCuriColumnFamily());
+		}
+	}
+
+	/**
+	 * Creates the content table in HBase, holding only the content column
+	 * family.
+	 * 
+	 * @param hbaseConfiguration
+	 *            the c
+	 * @param contentTableName
+	 *            the content table
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void initializeContentTable(final Configuration hbaseConfiguration, final String contentTableName) throws IOException {
+		initializeTable(hbaseConfiguration, contentTableName, getHbaseOptions().getContentColumnFamily());
+	}
+
+	/**
+	 * Creates the given table in HBase, or adds any of the given column
+	 * families it is missing and brings the max versions of the existing ones
+	 * in line with the configuration.
+	 * 
+	 * @param hbaseConfiguration
+	 *            the c
+	 * @param hbaseTableName
+	 *            the table
+	 * @param columnFamilies
+	 *            the column families the table must have
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void initializeTable(final Configuration hbaseConfiguration, final String hbaseTableName, final String... columnFamilies) throws IOException {
 		// an HBase admin object to manage hbase tables.
 		HBaseAdmin hbaseAdmin = new HBaseAdmin(hbaseConfiguration);
 
 		if (hbaseAdmin.tableExists(hbaseTableName)) {
-			boolean foundContentColumnFamily = false;
-			boolean foundCURIColumnFamily = false;
-
 			log.info("Checking table: " + hbaseTableName + " for structure...");
 
 			// Check the existing table and manipulate it if necessary
 			// to conform to the pre-existing table schema.
 			HTableDescriptor existingHBaseTable = hbaseAdmin.getTableDescriptor(Bytes.toBytes(hbaseTableName));
-			for (HColumnDescriptor hColumnDescriptor : existingHBaseTable.getFamilies()) {
-				if (hColumnDescriptor.getNameAsString().equalsIgnoreCase(getHbaseOptions().getContentColumnFamily())) {
-					foundContentColumnFamily = true;
-				} else if (hColumnDescriptor.getNameAsString().equalsIgnoreCase(getHbaseOptions().getCuriColumnFamily())) {
-					foundCURIColumnFamily = true;
-				}
-			}
-
-			// modify the table if it's missing any of the column families.
-			if (!foundContentColumnFamily || !foundCURIColumnFamily) {
+			if (conformTable(existingHBaseTable, hbaseTableName, columnFamilies)) {
 				log.info("Disabling table: " + hbaseTableName);
 				hbaseAdmin.disableTable(hbaseTableName);
 
-				if (!foundContentColumnFamily) {
-					log.info("Adding column to table: " + hbaseTableName + " column: " + getHbaseOptions().getContentColumnFamily());
-					existingHBaseTable.addFamily(new HColumnDescriptor(getHbaseOptions().getContentColumnFamily()));
-				}
-
-				if (!foundCURIColumnFamily) {
-					log.info("Adding column to table: " + hbaseTableName + " column: " + getHbaseOptions().getCuriColumnFamily());
-					existingHBaseTable.addFamily(new HColumnDescriptor(getHbaseOptions().getCuriColumnFamily()));
-				}
-
 				hbaseAdmin.modifyTable(Bytes.toBytes(hbaseTableName), existingHBaseTable);
 
 				log.info("Enabling table: " + hbaseTableName);
@@ -655,8 +1039,10 @@ public class HBaseWriter extends WriterPoolMember implements Serializer {
 			// create a new hbase table
 			log.info("Creating table " + hbaseTableName);
 			HTableDescriptor newHBaseTable = new HTableDescriptor(hbaseTableName);
-			newHBaseTable.addFamily(new HColumnDescriptor(getHbaseOptions().getContentColumnFamily()));
-			newHBaseTable.addFamily(new HColumnDescriptor(getHbaseOptions().getCuriColumnFamily()));
+			for (String columnFamily : columnFamilies) {
+				newHBaseTable.addFamily(createColumnFamily(columnFamily));
+			}
+			newHBaseTable.setDeferredLogFlush(isDeferredLogFlush(hbaseTableName, columnFamilies));
 
 			// create the table
 			hbaseAdmin.createTable(newHBaseTable);
@@ -665,170 +1051,1830 @@ public class HBaseWriter extends WriterPoolMember implements Serializer {
 	}
 
 	/**
-	 * Read the ReplayInputStream and write it to the given BatchUpdate with the
-	 * given column.
-	 * 
-	 * @param replayInputStream
-	 *            the ris the cell data as a replay input stream
-	 * @param streamSize
-	 *            the size
+	 * Brings the descriptor of an existing table in line with the
+	 * configuration: adds any of the given column families it is missing,
+	 * sets the max versions of those that have a max versions configured and
+	 * turns on deferred log flush if the families are ASYNC_WAL. Nothing else
+	 * the admin set on the table is touched.
 	 * 
-	 * @return the byte array from input stream
+	 * @param existingHBaseTable
+	 *            the descriptor of the existing table, modified in place
+	 * @param hbaseTableName
+	 *            the table name
+	 * @param columnFamilies
+	 *            the column families the table must have
 	 * 
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @return true, if the descriptor was modified and the table must be
+	 *         altered
 	 */
-	protected byte[] getByteArrayFromInputStream(final ReplayInputStream replayInputStream, final int streamSize) throws IOException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(streamSize);
-		try {
-			// read the InputStream to the ByteArrayOutputStream
-			replayInputStream.readFullyTo(baos);
-		} finally {
-			IOUtils.closeStream(replayInputStream);
+	protected boolean conformTable(final HTableDescriptor existingHBaseTable, final String hbaseTableName, final String... columnFamilies) {
+		Set<String> missingColumnFamilies = new LinkedHashSet<String>(Arrays.asList(columnFamilies));
+		boolean modifiedColumnFamily = false;
+
+		for (HColumnDescriptor hColumnDescriptor : existingHBaseTable.getFamilies()) {
+			String familyName = null;
+			for (String columnFamily : columnFamilies) {
+				if (hColumnDescriptor.getNameAsString().equalsIgnoreCase(columnFamily)) {
+					familyName = columnFamily;
+				}
+			}
+			if (familyName == null) {
+				continue;
+			}
+			missingColumnFamilies.remove(familyName);
+
+			// keep the crawl history depth in line with the configuration, if
+			// one is configured
+			int maxVersions = getMaxVersions(familyName);
+			if (maxVersions > 0 && hColumnDescriptor.getMaxVersions() != maxVersions) {
+				log.info("Changing max versions of column: " + familyName + " from " + hColumnDescriptor.getMaxVersions() + " to " + maxVersions);
+				hColumnDescriptor.setMaxVersions(maxVersions);
+				modifiedColumnFamily = true;
+			}
 		}
-		baos.close();
-		return baos.toByteArray();
+
+		// sync the write ahead log in the background if ASYNC_WAL is configured
+		// and the families allow; otherwise leave what the admin set
+		if (isDeferredLogFlush(hbaseTableName, columnFamilies) && !existingHBaseTable.isDeferredLogFlush()) {
+			log.info("Changing deferred log flush of table: " + hbaseTableName + " to true");
+			existingHBaseTable.setDeferredLogFlush(true);
+			modifiedColumnFamily = true;
+		}
+
+		// add any of the column families the table is missing
+		for (String columnFamily : missingColumnFamilies) {
+			log.info("Adding column to table: " + hbaseTableName + " column: " + columnFamily);
+			existingHBaseTable.addFamily(createColumnFamily(columnFamily));
+		}
+		return !missingColumnFamilies.isEmpty() || modifiedColumnFamily;
 	}
 
 	/**
-	 * This is a stub method and is here to allow extension/overriding for
-	 * custom content parsing, data manipulation and to populate new columns.
+	 * Checks if a table should sync its write ahead log in the background:
+	 * some of its families are ASYNC_WAL, and none are SYNC_WAL.
 	 * 
-	 * For Example : html parsing, text extraction, analysis and transformation
-	 * and storing the results in new column families/columns using the batch
-	 * update object. Or even saving the values in other custom hbase tables or
-	 * other remote data sources. (a.k.a. anything you want)
+	 * @param hbaseTableName
+	 *            the table name
+	 * @param columnFamilies
+	 *            the column families written to the table
 	 * 
-	 * @param put
-	 *            the stateful put object containing all the row data to be
-	 *            written.
-	 * @param replayInputStream
-	 *            the replay input stream containing the raw content gotten by
-	 *            heritrix crawler.
-	 * @param streamSize
-	 *            the stream size
+	 * @return true, if the table defers log flushes
+	 */
+	protected boolean isDeferredLogFlush(final String hbaseTableName, final String... columnFamilies) {
+		boolean async = false;
+		boolean sync = false;
+		for (String columnFamily : columnFamilies) {
+			async |= getDurability(columnFamily) == WriteDurability.ASYNC_WAL;
+			sync |= getDurability(columnFamily) == WriteDurability.SYNC_WAL;
+		}
+		if (async && sync) {
+			log.warning("Table: " + hbaseTableName + " mixes ASYNC_WAL and SYNC_WAL column families, writing all of them with SYNC_WAL");
+		}
+		return async && !sync;
+	}
+
+	/**
+	 * Gets the configured durability of the given column family.
 	 * 
-	 * @throws IOException
-	 *             Signals that an I/O exception has occurred.
+	 * @param familyName
+	 *            the column family name
+	 * 
+	 * @return the durability
 	 */
-	protected void processContent(Put put, ReplayInputStream replayInputStream, int streamSize) throws IOException {
-		// Below is just an example of a typical use case of overriding this
-		// method.
-		// I.E.: The goal below is to process the raw content array and parse it
-		// to a new byte array.....
-		// byte[] rowKey = put.getRow();
-		// byte[] rawContent =
-		// this.getByteArrayFromInputStream(replayInputStream, streamSize)
-		// // process rawContent and create output to store in new columns.
-		// byte[] someParsedByteArray =
-		// userDefinedMethondToProcessRawContent(rawContent);
-		// put.add(Bytes.toBytes("some_column_family"),
-		// Bytes.toBytes("a_new_column_name"), someParsedByteArray);
+	protected WriteDurability getDurability(final String familyName) {
+		if (familyName.equalsIgnoreCase(getHbaseOptions().getContentColumnFamily())) {
+			return getHbaseOptions().getContentDurability();
+		}
+		return getHbaseOptions().getCuriDurability();
 	}
 
 	/**
-	 * Write the crawled output to the configured HBase table. Write each row
-	 * key as the url with reverse domain and optionally process any content.
+	 * Gets the configured max versions of the given column family.
+	 * 
+	 * @param familyName
+	 *            the column family name
+	 * 
+	 * @return the max versions, or 0 to leave them as they are
+	 */
+	protected int getMaxVersions(final String familyName) {
+		if (familyName.equalsIgnoreCase(getHbaseOptions().getContentColumnFamily())) {
+			return getHbaseOptions().getContentMaxVersions();
+		}
+		if (familyName.equalsIgnoreCase(getHbaseOptions().getCuriColumnFamily())) {
+			return getHbaseOptions().getCuriMaxVersions();
+		}
+		return HBaseParameters.MAX_VERSIONS;
+	}
+
+	/**
+	 * Turns on client side write buffering of the given table if a buffer
+	 * size is configured. Otherwise every put goes straight to the region
+	 * server.
+	 * 
+	 * @param table
+	 *            the table
+	 * @param writeBufferSize
+	 *            the write buffer size in bytes, 0 for no buffering
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void configureWriteBuffer(final HTable table, final long writeBufferSize) throws IOException {
+		// the region batcher does the buffering when region batching is on
+		if (writeBufferSize > 0 && getHbaseOptions().getRegionBatchBytes() <= 0) {
+			table.setAutoFlush(false);
+			table.setWriteBufferSize(writeBufferSize);
+		}
+	}
+
+	/**
+	 * Creates a column family descriptor that keeps the configured number of
+	 * versions of each cell, or the HBase default if none is configured. The
+	 * content column family can be kept out of
+	 * the block cache, so reading bodies doesn't evict hot metadata.
+	 * 
+	 * @param familyName
+	 *            the column family name
+	 * 
+	 * @return the column family descriptor
+	 */
+	protected HColumnDescriptor createColumnFamily(final String familyName) {
+		HColumnDescriptor columnFamily = new HColumnDescriptor(familyName);
+		if (getMaxVersions(familyName) > 0) {
+			columnFamily.setMaxVersions(getMaxVersions(familyName));
+		}
+		if (familyName.equalsIgnoreCase(getHbaseOptions().getContentColumnFamily())) {
+			columnFamily.setBlockCacheEnabled(getHbaseOptions().isContentBlockCacheEnabled());
+		}
+		return columnFamily;
+	}
+
+	/**
+	 * Gets the timestamp to give every cell written for the given crawl uri,
+	 * according to the configured {@link TimestampPolicy}.
 	 * 
 	 * @param curi
-	 *            URI of crawled document
-	 * @param ip
-	 *            IP of remote machine.
-	 * @param recordingOutputStream
-	 *            recording input stream that captured the response
+	 *            the crawl uri
+	 * 
+	 * @return the cell timestamp, or HConstants.LATEST_TIMESTAMP to let the
+	 *         region server set it
+	 */
+	protected long getCellTimestamp(final CrawlURI curi) {
+		switch (getHbaseOptions().getTimestampPolicy()) {
+		case SERVER_TIME:
+			return HConstants.LATEST_TIMESTAMP;
+		case CRAWL_EPOCH:
+			return getHbaseOptions().getCrawlEpoch();
+		case FETCH_TIME:
+		default:
+			if (curi.getFetchBeginTime() > 0) {
+				return curi.getFetchBeginTime();
+			}
+			return HConstants.LATEST_TIMESTAMP;
+		}
+	}
+
+	/**
+	 * Read the ReplayInputStream and write it to the given BatchUpdate with the
+	 * given column.
+	 * 
+	 * @param replayInputStream
+	 *            the ris the cell data as a replay input stream
+	 * @param streamSize
+	 *            the size
+	 * 
+	 * @return the byte array from input stream
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected byte[] getByteArrayFromInputStream(final ReplayInputStream replayInputStream, final int streamSize) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(streamSize);
+		try {
+			// read the InputStream to the ByteArrayOutputStream
+			replayInputStream.readFullyTo(baos);
+		} finally {
+			IOUtils.closeStream(replayInputStream);
+		}
+		baos.close();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Adds the raw content to the given Put. Without a serializer the body is
+	 * read straight into the content KeyValue, sized from the stream size,
+	 * its only heap copy, either from the Recorder's backing file through a
+	 * mapping when mapped replay is on, or from the replay stream. With a
+	 * serializer the body is read into a byte array and serialized.
+	 * 
+	 * @param batchPut
+	 *            the put
+	 * @param replayInputStream
+	 *            the replay input stream of the response, closed when read
+	 * @param streamSize
+	 *            the stream size
+	 * 
+	 * @return the raw response as captured, for the content processing hooks
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected ByteBuffer addContent(final Put batchPut, final ReplayInputStream replayInputStream, final int streamSize) throws IOException {
+		byte[] contentFamily = getColumnBytes(getHbaseOptions().getContentColumnFamily());
+		byte[] contentColumn = getColumnBytes(getHbaseOptions().getContentColumnName());
+		if (getHbaseOptions().getSerializer() != null) {
+			byte[] rawContent = getByteArrayFromInputStream(replayInputStream, streamSize);
+			batchPut.add(contentFamily, contentColumn, serialize(rawContent));
+			return ByteBuffer.wrap(rawContent);
+		}
+		KeyValue contentCell;
+		RecordedContent mapped = mapRecordedContent(replayInputStream, streamSize);
+		try {
+			if (mapped != null) {
+				contentCell = KeyValueArena.createKeyValue(batchPut.getRow(), contentFamily, contentColumn, batchPut.getTimeStamp(), mapped.getBuffers());
+			} else {
+				contentCell = KeyValueArena.createKeyValue(batchPut.getRow(), contentFamily, contentColumn, batchPut.getTimeStamp(), replayInputStream,
+						streamSize);
+			}
+		} finally {
+			IOUtils.closeStream(replayInputStream);
+			// the cell holds its own copy, the mapping isn't needed any more
+			if (mapped != null) {
+				mapped.close();
+			}
+		}
+		batchPut.add(contentCell);
+		// without a serializer the cell's value is the raw response
+		return ByteBuffer.wrap(contentCell.getBuffer(), contentCell.getValueOffset(), contentCell.getValueLength()).slice();
+	}
+
+	/**
+	 * Adds the request to the put, whole or, in TEMPLATE request capture, as
+	 * a diff against the crawl's template request. The first request whose
+	 * template row is written becomes the template; until then requests are
+	 * kept whole.
+	 * 
+	 * @param batchPut
+	 *            the put
+	 * @param request
+	 *            the request
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void addRequest(final Put batchPut, final byte[] request) throws IOException {
+		byte[] family = getColumnBytes(getHbaseOptions().getCuriColumnFamily());
+		byte[] column = getColumnBytes(getHbaseOptions().getRequestColumnName());
+		if (getHbaseOptions().getRequestCapture() != RequestCapture.TEMPLATE) {
+			batchPut.add(family, column, serialize(request));
+			return;
+		}
+		RequestTemplateCodec codec = getRequestTemplateCodec();
+		if (!codec.hasTemplate() && !initRequestTemplate(codec, request, family, column)) {
+			// no template row to decode against yet, keep this request whole
+			batchPut.add(family, column, serialize(request));
+			return;
+		}
+		batchPut.add(family, column, serialize(codec.encode(request)));
+	}
+
+	/**
+	 * Makes a request the template of the codec once its row is written. Only
+	 * one writer of the pool writes a template row at a time, without holding
+	 * a lock across the write; the others keep their requests whole meanwhile.
+	 * If the row can't be written the codec is left without a template, and
+	 * no writer tries again for circuitBreakerOpenMs, so a region that is down
+	 * doesn't cost every request a synchronous write.
+	 * 
+	 * @param codec
+	 *            the codec, shared by the writers of the pool
+	 * @param request
+	 *            the request
+	 * @param family
+	 *            the family of the request column
+	 * @param column
+	 *            the request column
+	 * 
+	 * @return true, if the codec has a template
+	 */
+	private boolean initRequestTemplate(final RequestTemplateCodec codec, final byte[] request, final byte[] family, final byte[] column) {
+		long now = System.currentTimeMillis();
+		if (!codec.beginTemplateAttempt(now)) {
+			return codec.hasTemplate();
+		}
+		Put templatePut = new Put(Bytes.toBytes(RequestTemplateCodec.getTemplateRow(request)));
+		templatePut.add(family, column, serialize(request));
+		templatePut.setWriteToWAL(getHbaseOptions().getCuriDurability() != WriteDurability.SKIP_WAL);
+		try {
+			writeRequestTemplate(templatePut);
+		} catch (IOException e) {
+			codec.templateAttemptFailed(now + getHbaseOptions().getCircuitBreakerOpenMs());
+			log.log(Level.WARNING, "Couldn't write the request template, keeping requests whole for "
+					+ getHbaseOptions().getCircuitBreakerOpenMs() + "ms before trying again", e);
+			return false;
+		} catch (RuntimeException e) {
+			codec.templateAttemptFailed(now + getHbaseOptions().getCircuitBreakerOpenMs());
+			throw e;
+		}
+		codec.setTemplate(request);
+		return true;
+	}
+
+	/**
+	 * Writes the row of a request template straight to the table, past the
+	 * region batches, the failed put queue and the spool, so it is known to be
+	 * in the table before any request is encoded against it.
+	 * 
+	 * @param templatePut
+	 *            the put of the template row
+	 * 
+	 * @throws IOException
+	 *             if the row couldn't be written
+	 */
+	protected void writeRequestTemplate(final Put templatePut) throws IOException {
+		put(getClient(), templatePut);
+		flushCommits(getClient());
+	}
+
+	/**
+	 * Gets the body of the response captured by
+	 * {@link #addContent(Put, ReplayInputStream, int)}. The body is the tail
+	 * of the response, as long as the content length the recording input
+	 * stream reports, so nothing is read from the Recorder again.
+	 * 
+	 * @param response
+	 *            the captured response
 	 * @param recordingInputStream
-	 *            recording output stream that captured the GET request
+	 *            the recording input stream of the response
+	 * 
+	 * @return a read only view of the response body
+	 */
+	private ByteBuffer getResponseBody(final ByteBuffer response, final RecordingInputStream recordingInputStream) {
+		long bodyLength = Math.max(0, Math.min(recordingInputStream.getResponseContentLength(), response.remaining()));
+		ByteBuffer body = response.duplicate();
+		body.position(body.position() + response.remaining() - (int) bodyLength);
+		return body.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Checks if anything processes the response body: a content processing
+	 * hook overridden by a subclass, or registered content processors.
+	 * 
+	 * @return true, if the body is processed
+	 */
+	private boolean isContentProcessed() {
+		return overridesBufferHook || overridesStreamHook || (getContentProcessors() != null && !getContentProcessors().isEmpty());
+	}
+
+	/**
+	 * Runs the content processing hooks that a subclass overrides, and starts
+	 * the registered content processors unless enrichment is deferred, over
+	 * the response captured by {@link #addContent(Put, ReplayInputStream, int)}
+	 * rather than replaying the Recorder a second time. The stream hook
+	 * replays an array, so when the captured bytes are only part of one, such
+	 * as the value of the content cell, they are copied for it.
+	 * 
+	 * @param curi
+	 *            the crawl uri
+	 * @param batchPut
+	 *            the put
+	 * @param response
+	 *            the captured response
+	 * @param body
+	 *            the body of the captured response
+	 * 
+	 * @return the pending puts of the content processors, empty if there are
+	 *         none
 	 * 
 	 * @throws IOException
 	 *             Signals that an I/O exception has occurred.
 	 */
-	public void write(final CrawlURI curi, final String ip, final RecordingOutputStream recordingOutputStream, final RecordingInputStream recordingInputStream)
+	private List<Future<Put>> processCapturedContent(final CrawlURI curi, final Put batchPut, final ByteBuffer response, final ByteBuffer body)
 			throws IOException {
+		List<Future<Put>> pending = Collections.emptyList();
+		// the processors work on other threads while the hooks run here
+		if (getContentProcessors() != null && !getContentProcessors().isEmpty() && getEnrichmentStage() == null) {
+			pending = getContentProcessors().submit(curi, batchPut, body);
+		}
+		if (overridesBufferHook) {
+			processContent(batchPut, body.duplicate());
+		}
+		if (overridesStreamHook) {
+			byte[] captured;
+			if (response.hasArray() && response.arrayOffset() == 0 && response.position() == 0 && response.remaining() == response.array().length) {
+				captured = response.array();
+			} else {
+				captured = new byte[response.remaining()];
+				response.duplicate().get(captured);
+			}
+			// replay the bytes already in memory, from the body on
+			ReplayInputStream replayInputStream = new ReplayInputStream(captured, captured.length, captured.length - body.remaining(), null);
+			try {
+				replayInputStream.setToResponseBodyStart();
+				processContent(batchPut, replayInputStream, captured.length);
+			} finally {
+				IOUtils.closeStream(replayInputStream);
+			}
+		}
+		return pending;
+	}
 
-		// generate the target url of the crawled document
-		String url = curi.toString();
+	/**
+	 * Checks if a subclass overrides a content processing hook.
+	 * 
+	 * @param parameterTypes
+	 *            the parameter types of the hook
+	 * 
+	 * @return true, if overridden
+	 */
+	private boolean overridesHook(final Class<?>... parameterTypes) {
+		for (Class<?> type = getClass(); type != HBaseWriter.class; type = type.getSuperclass()) {
+			try {
+				type.getDeclaredMethod("processContent", parameterTypes);
+				return true;
+			} catch (NoSuchMethodException e) {
+				// not declared here, try the superclass
+			}
+		}
+		return false;
+	}
 
-		// create the hbase friendly rowkey
-		String rowKey = Keying.createKey(url);
-		if (log.isLoggable(Level.FINE)) {
-			log.log(Level.FINE, "Writing " + url + " as " + rowKey);
+	/**
+	 * Maps a body the Recorder spilled to its backing file, if mapped replay
+	 * is on, the body is at least mappedReplayMinBytes and no serializer needs
+	 * it as a byte array.
+	 * 
+	 * @param replayInputStream
+	 *            the replay input stream, left unread
+	 * @param streamSize
+	 *            the stream size
+	 * 
+	 * @return the mapped content, or null if the body wasn't mapped
+	 */
+	protected RecordedContent mapRecordedContent(final ReplayInputStream replayInputStream, final int streamSize) {
+		if (!getHbaseOptions().isMappedReplayEnabled() || getHbaseOptions().getSerializer() != null || streamSize < getHbaseOptions().getMappedReplayMinBytes()) {
+			return null;
+		}
+		try {
+			return RecordedContent.open(replayInputStream, streamSize);
+		} catch (IOException e) {
+			log.log(Level.FINE, "Couldn't map recorded content, streaming it instead", e);
+			return null;
 		}
+	}
 
-		// Modify the row key if its supposed to be stored in MD5 format
-		if (getHbaseOptions().isMd5Key()) {
-			rowKey = DigestUtils.md5Hex(rowKey);
+	/**
+	 * Determine if the content stored under the given rowkey has the same
+	 * payload digest as the content just fetched. Only the digest cell is read,
+	 * and the answer is remembered in the revisit digest cache so that each
+	 * rowkey goes to HBase at most once.
+	 * 
+	 * @param rowKey
+	 *            the rowkey
+	 * @param payloadDigest
+	 *            the payload digest of the fetched content
+	 * 
+	 * @return true, if the stored digest matches
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected boolean isContentUnchanged(final String rowKey, final byte[] payloadDigest) throws IOException {
+		byte[] storedDigest = getRevisitDigestCache().get(rowKey);
+		boolean cached = storedDigest != null || getRevisitDigestCache().contains(rowKey);
+		getMetrics().recordRevisitCacheLookup(cached);
+		if (!cached) {
+			long start = System.nanoTime();
+			byte[] curiFamily = Bytes.toBytes(getHbaseOptions().getCuriColumnFamily());
+			byte[] digestQualifier = Bytes.toBytes(getHbaseOptions().isCompactMetadata() ? getHbaseOptions().getMetadataColumnName() : getHbaseOptions()
+					.getPayloadDigestColumnName());
+			Get digestGet = new Get(Bytes.toBytes(rowKey));
+			digestGet.addColumn(curiFamily, digestQualifier);
+			Result result = lookup(digestGet);
+			storedDigest = (result != null) ? result.getValue(curiFamily, digestQualifier) : null;
+			getMetrics().recordExistenceCheck(System.nanoTime() - start, storedDigest != null);
+			if (storedDigest != null && getHbaseOptions().isCompactMetadata()) {
+				// the digest is inside the metadata record, which can only be
+				// decoded if it isn't transformed by a serializer.
+				storedDigest = (getHbaseOptions().getSerializer() == null) ? MetadataRecord.fromBytes(storedDigest).getPayloadDigest() : null;
+			}
+			getRevisitDigestCache().put(rowKey, storedDigest);
 		}
+		return storedDigest != null && Bytes.equals(storedDigest, getStoredDigest(payloadDigest));
+	}
 
-		// create an hbase updateable object (the put object)
-		// Constructor takes the rowkey as the only argument
-		Put batchPut = new Put(Bytes.toBytes(rowKey));
+	/**
+	 * Reads a revisit check from HBase, through the lookup pool if there is
+	 * one, otherwise through this writer's own table client.
+	 * 
+	 * @param get
+	 *            the get
+	 * 
+	 * @return the result, or null if there is none
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected Result lookup(final Get get) throws IOException {
+		return (getLookupPool() != null) ? getLookupPool().get(get) : getClient().get(get);
+	}
+
+	/**
+	 * Gets the payload digest in the form it is compared with what is stored
+	 * in the table: serialized when it has its own cell, as is when it is part
+	 * of a compact metadata record.
+	 * 
+	 * @param payloadDigest
+	 *            the payload digest
+	 * 
+	 * @return the stored form of the payload digest
+	 */
+	protected byte[] getStoredDigest(final byte[] payloadDigest) {
+		return getHbaseOptions().isCompactMetadata() ? payloadDigest : serialize(payloadDigest);
+	}
+
+	/**
+	 * Adds the curi metadata to the given Put, one cell per value. The cells
+	 * are encoded in the writer's {@link KeyValueArena}, so apart from the
+	 * Put itself a url costs one array for all of its metadata cells.
+	 * 
+	 * @param batchPut
+	 *            the put
+	 * @param curi
+	 *            the crawl uri
+	 * @param ip
+	 *            the ip of the remote machine
+	 * @param payloadDigest
+	 *            the payload digest, or null if there is none
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void addMetadata(final Put batchPut, final CrawlURI curi, final String ip, final byte[] payloadDigest) throws IOException {
+		metadataArena.reset(batchPut.getRow(), batchPut.getTimeStamp());
 
 		// write the target url to the url column
-		batchPut.add(Bytes.toBytes(getHbaseOptions().getCuriColumnFamily()), Bytes.toBytes(getHbaseOptions().getUrlColumnName()), curi.getFetchBeginTime(),
-				serialize(Bytes.toBytes(url)));
+		addMetadataCell(getHbaseOptions().getUrlColumnName(), curi.toString(), false);
 
 		// write the target ip to the ip column
-		batchPut.add(Bytes.toBytes(getHbaseOptions().getCuriColumnFamily()), Bytes.toBytes(getHbaseOptions().getIpColumnName()), curi.getFetchBeginTime(),
-				serialize(Bytes.toBytes(ip)));
+		addMetadataCell(getHbaseOptions().getIpColumnName(), ip, false);
+
+		// write the payload digest so later crawls can detect unchanged content
+		if (payloadDigest != null) {
+			metadataArena.add(getColumnBytes(getHbaseOptions().getCuriColumnFamily()), getColumnBytes(getHbaseOptions().getPayloadDigestColumnName()),
+					serialize(payloadDigest));
+		}
+
+		// write the fetch status, content type, length and response headers
+		if (getHbaseOptions().isWriteFetchMetadata()) {
+			addFetchMetadata(curi);
+		}
 
 		// is the url part of the seed url (the initial url(s) used to start the
 		// crawl)
 		if (curi.isSeed()) {
-			batchPut.add(Bytes.toBytes(getHbaseOptions().getCuriColumnFamily()), Bytes.toBytes(getHbaseOptions().getIsSeedColumnName()),
-					serialize(Bytes.toBytes(Boolean.TRUE.booleanValue())));
+			byte[] isSeedColumn = getColumnBytes(getHbaseOptions().getIsSeedColumnName());
+			if (getHbaseOptions().getSerializer() == null) {
+				metadataArena.add(getColumnBytes(getHbaseOptions().getCuriColumnFamily()), isSeedColumn, true);
+			} else {
+				metadataArena.add(getColumnBytes(getHbaseOptions().getCuriColumnFamily()), isSeedColumn, serialize(Bytes.toBytes(Boolean.TRUE.booleanValue())));
+			}
 
-			if (curi.getPathFromSeed() != null && curi.getPathFromSeed().trim().length() > 0) {
-				batchPut.add(Bytes.toBytes(getHbaseOptions().getCuriColumnFamily()), Bytes.toBytes(getHbaseOptions().getPathFromSeedColumnName()),
-						serialize(Bytes.toBytes(curi.getPathFromSeed().trim())));
+			if (curi.getPathFromSeed() != null && !isBlank(curi.getPathFromSeed())) {
+				addMetadataCell(getHbaseOptions().getPathFromSeedColumnName(), curi.getPathFromSeed(), true);
 			}
 		}
 
 		// write the Via string
-		String viaStr = (curi.getVia() != null) ? curi.getVia().toString().trim() : null;
-		if (viaStr != null && viaStr.length() > 0) {
-			batchPut.add(Bytes.toBytes(getHbaseOptions().getCuriColumnFamily()), Bytes.toBytes(getHbaseOptions().getViaColumnName()),
-					serialize(Bytes.toBytes(viaStr)));
+		if (curi.getVia() != null) {
+			String viaStr = curi.getVia().toString();
+			if (!isBlank(viaStr)) {
+				addMetadataCell(getHbaseOptions().getViaColumnName(), viaStr, true);
+			}
 		}
 
-		// Write the Crawl Request to the Put object
-		if (recordingOutputStream.getSize() > 0) {
-			batchPut.add(Bytes.toBytes(getHbaseOptions().getCuriColumnFamily()), Bytes.toBytes(getHbaseOptions().getRequestColumnName()),
-					serialize(getByteArrayFromInputStream(recordingOutputStream.getReplayInputStream(), (int) recordingOutputStream.getSize())));
+		metadataArena.addTo(batchPut);
+	}
+
+	/**
+	 * Adds a string cell of the curi column family to the metadata arena,
+	 * straight from its characters unless a serializer is configured.
+	 * 
+	 * @param columnName
+	 *            the column name
+	 * @param value
+	 *            the value
+	 * @param trim
+	 *            whether to trim the value
+	 */
+	private void addMetadataCell(final String columnName, final String value, final boolean trim) {
+		byte[] family = getColumnBytes(getHbaseOptions().getCuriColumnFamily());
+		if (getHbaseOptions().getSerializer() == null) {
+			metadataArena.add(family, getColumnBytes(columnName), value, trim);
+		} else {
+			metadataArena.add(family, getColumnBytes(columnName), serialize(Bytes.toBytes(trim ? value.trim() : value)));
 		}
+	}
 
-		// Write the Crawl Response to the Put object
-		ReplayInputStream replayInputStream = recordingInputStream.getReplayInputStream();
-		try {
-			// add the raw content to the table record.
-			batchPut.add(Bytes.toBytes(getHbaseOptions().getContentColumnFamily()), Bytes.toBytes(getHbaseOptions().getContentColumnName()),
-					serialize(getByteArrayFromInputStream(replayInputStream, (int) recordingInputStream.getSize())));
+	/**
+	 * Gets the bytes of a family or column name, encoded once per writer.
+	 * 
+	 * @param name
+	 *            the name
+	 * 
+	 * @return the bytes
+	 */
+	protected byte[] getColumnBytes(final String name) {
+		byte[] bytes = columnBytes.get(name);
+		if (bytes == null) {
+			bytes = Bytes.toBytes(name);
+			columnBytes.put(name, bytes);
+		}
+		return bytes;
+	}
 
-			// reset the input steam for the content processor.
-			replayInputStream = recordingInputStream.getReplayInputStream();
-			replayInputStream.setToResponseBodyStart();
+	/**
+	 * Checks if a string is empty or only whitespace, without trimming it.
+	 * 
+	 * @param value
+	 *            the value
+	 * 
+	 * @return true, if blank
+	 */
+	private static boolean isBlank(final String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
 
-			// process the content (optional)
-			processContent(batchPut, replayInputStream, (int) recordingInputStream.getSize());
+	/**
+	 * Adds the curi metadata to the given Put as a single
+	 * {@link MetadataRecord} cell, which saves repeating the rowkey, family,
+	 * qualifier and timestamp of a KeyValue for every small value.
+	 * 
+	 * @param batchPut
+	 *            the put
+	 * @param curi
+	 *            the crawl uri
+	 * @param ip
+	 *            the ip of the remote machine
+	 * @param payloadDigest
+	 *            the payload digest, or null if there is none
+	 */
+	protected void addCompactMetadata(final Put batchPut, final CrawlURI curi, final String ip, final byte[] payloadDigest) {
+		MetadataRecord record = new MetadataRecord();
+		record.setUrl(curi.toString());
+		record.setIp(ip);
+		record.setPayloadDigest(payloadDigest);
 
-			// TODO: add an option to manually set the timestamp value of the
-			// batchPut object
-			// Set crawl time as the timestamp to the Put object.
-			// batchPut.setTimeStamp(curi.getFetchBeginTime());
+		if (curi.isSeed()) {
+			record.setSeed(true);
+			if (curi.getPathFromSeed() != null && curi.getPathFromSeed().trim().length() > 0) {
+				record.setPathFromSeed(curi.getPathFromSeed().trim());
+			}
+		}
 
-			// write the Put object to the HBase table
-			getClient().put(batchPut);
-		} finally {
-			IOUtils.closeStream(replayInputStream);
+		String viaStr = (curi.getVia() != null) ? curi.getVia().toString().trim() : null;
+		if (viaStr != null && viaStr.length() > 0) {
+			record.setVia(viaStr);
 		}
-	}
 
-	/* (non-Javadoc)
-	 * @see org.archive.io.hbase.Serializer#serialize(byte[])
+		if (getHbaseOptions().isWriteFetchMetadata()) {
+			record.setFetchStatus(curi.getFetchStatus());
+			record.setContentLength(curi.getContentLength());
+			if (curi.getContentType() != null && curi.getContentType().length() > 0) {
+				record.setContentType(curi.getContentType());
+			}
+			HttpMethod httpMethod = curi.getHttpMethod();
+			if (httpMethod != null) {
+				for (String headerName : getHbaseOptions().getResponseHeaders()) {
+					Header header = httpMethod.getResponseHeader(headerName);
+					if (header != null && header.getValue() != null) {
+						record.addResponseHeader(headerName, header.getValue());
+					}
+				}
+			}
+		}
+
+		batchPut.add(Bytes.toBytes(getHbaseOptions().getCuriColumnFamily()), Bytes.toBytes(getHbaseOptions().getMetadataColumnName()), serialize(record.toBytes()));
+	}
+
+	/**
+	 * Adds the fetch status (int), content type (string), content length
+	 * (long) and the configured response headers of the crawl uri to the
+	 * metadata arena as separate cells of the curi column family, so
+	 * downstream jobs don't have to parse them out of the raw content.
+	 * 
+	 * @param curi
+	 *            the crawl uri
+	 */
+	protected void addFetchMetadata(final CrawlURI curi) {
+		byte[] curiFamily = getColumnBytes(getHbaseOptions().getCuriColumnFamily());
+		boolean serialized = getHbaseOptions().getSerializer() != null;
+
+		byte[] fetchStatusColumn = getColumnBytes(getHbaseOptions().getFetchStatusColumnName());
+		if (serialized) {
+			metadataArena.add(curiFamily, fetchStatusColumn, serialize(Bytes.toBytes(curi.getFetchStatus())));
+		} else {
+			metadataArena.add(curiFamily, fetchStatusColumn, curi.getFetchStatus());
+		}
+
+		if (curi.getContentType() != null && curi.getContentType().length() > 0) {
+			addMetadataCell(getHbaseOptions().getContentTypeColumnName(), curi.getContentType(), false);
+		}
+
+		if (curi.getContentLength() >= 0) {
+			byte[] contentLengthColumn = getColumnBytes(getHbaseOptions().getContentLengthColumnName());
+			if (serialized) {
+				metadataArena.add(curiFamily, contentLengthColumn, serialize(Bytes.toBytes(curi.getContentLength())));
+			} else {
+				metadataArena.add(curiFamily, contentLengthColumn, curi.getContentLength());
+			}
+		}
+
+		// only http fetches have response headers
+		HttpMethod httpMethod = curi.getHttpMethod();
+		if (httpMethod != null) {
+			for (String headerName : getHbaseOptions().getResponseHeaders()) {
+				Header header = httpMethod.getResponseHeader(headerName);
+				if (header != null && header.getValue() != null) {
+					addMetadataCell(getResponseHeaderColumnName(headerName), header.getValue(), false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the column name of a response header, built once per writer.
+	 * 
+	 * @param headerName
+	 *            the header name
+	 * 
+	 * @return the column name
+	 */
+	private String getResponseHeaderColumnName(final String headerName) {
+		String columnName = responseHeaderColumns.get(headerName);
+		if (columnName == null) {
+			columnName = getHbaseOptions().getResponseHeaderColumnPrefix() + headerName.toLowerCase();
+			responseHeaderColumns.put(headerName, columnName);
+		}
+		return columnName;
+	}
+
+	/**
+	 * Like {@link #processContent(Put, ReplayInputStream, int)}, but given the
+	 * response body as a read only view of the bytes already captured for the
+	 * content column, so nothing is read again. This is a stub method to
+	 * override; a subclass may override either hook, or both.
+	 * 
+	 * @param put
+	 *            the stateful put object containing all the row data to be
+	 *            written.
+	 * @param responseBody
+	 *            the response body, from the end of the headers to the end of
+	 *            the response
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void processContent(Put put, ByteBuffer responseBody) throws IOException {
+		// nothing by default
+	}
+
+	/**
+	 * This is a stub method and is here to allow extension/overriding for
+	 * custom content parsing, data manipulation and to populate new columns.
+	 * 
+	 * For Example : html parsing, text extraction, analysis and transformation
+	 * and storing the results in new column families/columns using the batch
+	 * update object. Or even saving the values in other custom hbase tables or
+	 * other remote data sources. (a.k.a. anything you want)
+	 * 
+	 * @param put
+	 *            the stateful put object containing all the row data to be
+	 *            written.
+	 * @param replayInputStream
+	 *            the replay input stream containing the raw content gotten by
+	 *            heritrix crawler.
+	 * @param streamSize
+	 *            the stream size
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void processContent(Put put, ReplayInputStream replayInputStream, int streamSize) throws IOException {
+		// Below is just an example of a typical use case of overriding this
+		// method.
+		// I.E.: The goal below is to process the raw content array and parse it
+		// to a new byte array.....
+		// byte[] rowKey = put.getRow();
+		// byte[] rawContent =
+		// this.getByteArrayFromInputStream(replayInputStream, streamSize)
+		// // process rawContent and create output to store in new columns.
+		// byte[] someParsedByteArray =
+		// userDefinedMethondToProcessRawContent(rawContent);
+		// put.add(Bytes.toBytes("some_column_family"),
+		// Bytes.toBytes("a_new_column_name"), someParsedByteArray);
+	}
+
+	/**
+	 * Write the crawled output to the configured HBase table. Write each row
+	 * key as the url with reverse domain and optionally process any content.
+	 * 
+	 * @param curi
+	 *            URI of crawled document
+	 * @param ip
+	 *            IP of remote machine.
+	 * @param recordingOutputStream
+	 *            recording input stream that captured the response
+	 * @param recordingInputStream
+	 *            recording output stream that captured the GET request
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void write(final CrawlURI curi, final String ip, final RecordingOutputStream recordingOutputStream, final RecordingInputStream recordingInputStream)
+			throws IOException {
+		write(curi, ip, recordingOutputStream, recordingInputStream, true);
+	}
+
+	/**
+	 * Write the crawled output to the configured HBase table, optionally
+	 * leaving out the response. Without the response the row holds the curi
+	 * metadata, less the payload digest, and the request only, and the content
+	 * isn't processed.
+	 * 
+	 * @param curi
+	 *            URI of crawled document
+	 * @param ip
+	 *            IP of remote machine.
+	 * @param recordingOutputStream
+	 *            recording input stream that captured the response
+	 * @param recordingInputStream
+	 *            recording output stream that captured the GET request
+	 * @param writeContent
+	 *            whether to write the response
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	public void write(final CrawlURI curi, final String ip, final RecordingOutputStream recordingOutputStream, final RecordingInputStream recordingInputStream,
+			final boolean writeContent) throws IOException {
+		writeLock.lock();
+		try {
+			writeRecord(curi, ip, recordingOutputStream, recordingInputStream, writeContent);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the crawled output, holding the write lock.
+	 * 
+	 * @param curi
+	 *            URI of crawled document
+	 * @param ip
+	 *            IP of remote machine.
+	 * @param recordingOutputStream
+	 *            recording input stream that captured the response
+	 * @param recordingInputStream
+	 *            recording output stream that captured the GET request
+	 * @param writeContent
+	 *            whether to write the response
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private void writeRecord(final CrawlURI curi, final String ip, final RecordingOutputStream recordingOutputStream,
+			final RecordingInputStream recordingInputStream, final boolean writeContent) throws IOException {
+
+		// give puts that failed earlier another chance first
+		if (getFailedPutQueue().size() > 0) {
+			replayFailedPuts(getHbaseOptions().getFailedPutReplayBatch());
+		}
+
+		// generate the target url of the crawled document
+		String url = curi.toString();
+
+		// create the hbase friendly rowkey
+		String rowKey = Keying.createKey(url);
+		if (log.isLoggable(Level.FINE)) {
+			log.log(Level.FINE, "Writing " + url + " as " + rowKey);
+		}
+
+		// Modify the row key if its supposed to be stored in MD5 format
+		if (getHbaseOptions().isMd5Key()) {
+			rowKey = DigestUtils.md5Hex(rowKey);
+		}
+
+		// the payload digest heritrix computed while fetching, if any.
+		String digestStr = curi.getContentDigestSchemeString();
+		byte[] payloadDigest = (digestStr != null) ? Bytes.toBytes(digestStr) : null;
+
+		// If the content hasn't changed since the last crawl, only record the
+		// revisit instead of rewriting the content.
+		if (getHbaseOptions().isOnlyWriteChangedContent() && payloadDigest != null && isContentUnchanged(rowKey, payloadDigest)) {
+			if (log.isLoggable(Level.FINE)) {
+				log.log(Level.FINE, "Content unchanged for " + url + ", writing revisit only");
+			}
+			Put revisitPut = new Put(Bytes.toBytes(rowKey), getCellTimestamp(curi));
+			revisitPut.add(Bytes.toBytes(getHbaseOptions().getCuriColumnFamily()), Bytes.toBytes(getHbaseOptions().getRevisitColumnName()),
+					serialize(Bytes.add(Bytes.toBytes(curi.getFetchBeginTime()), Bytes.toBytes(curi.getFetchStatus()))));
+			revisitPut.setWriteToWAL(getHbaseOptions().getCuriDurability() != WriteDurability.SKIP_WAL);
+			routePut(getClient(), revisitPut);
+			return;
+		}
+
+		// create an hbase updateable object (the put object)
+		// Constructor takes the rowkey and the timestamp every column added
+		// below (and by processContent) inherits, so all cells of this fetch
+		// share one version.
+		Put batchPut = new Put(Bytes.toBytes(rowKey), getCellTimestamp(curi));
+
+		// write the curi metadata, either packed into one cell or as one cell
+		// per value. The digest only goes with the content it identifies, or a
+		// later revisit check could match it and never write the content.
+		byte[] writtenDigest = writeContent ? payloadDigest : null;
+		if (getHbaseOptions().isCompactMetadata()) {
+			addCompactMetadata(batchPut, curi, ip, writtenDigest);
+		} else {
+			addMetadata(batchPut, curi, ip, writtenDigest);
+		}
+
+		// Write the Crawl Request to the Put object
+		if (recordingOutputStream.getSize() > 0 && getHbaseOptions().getRequestCapture() != RequestCapture.NONE) {
+			addRequest(batchPut, getByteArrayFromInputStream(recordingOutputStream.getReplayInputStream(), (int) recordingOutputStream.getSize()));
+		}
+
+		// metadata only; neither written nor cached is a digest to match
+		if (!writeContent) {
+			writePut(batchPut);
+			return;
+		}
+
+		// Write the Crawl Response to the Put object
+		ReplayInputStream replayInputStream = recordingInputStream.getReplayInputStream();
+		try {
+			// add the raw content to the table record.
+			ByteBuffer response = addContent(batchPut, replayInputStream, (int) recordingInputStream.getSize());
+
+			// process the content (optional), from the bytes just captured
+			ByteBuffer body = isContentProcessed() ? getResponseBody(response, recordingInputStream) : null;
+			if (body != null) {
+				List<Future<Put>> processing = processCapturedContent(curi, batchPut, response, body);
+				if (!processing.isEmpty()) {
+					getContentProcessors().merge(processing, batchPut);
+				}
+			}
+
+			// write the Put object to the HBase table. The put may only be
+			// queued, so its digest is cached first and forgotten again if the
+			// put fails here or is dropped later.
+			if (payloadDigest != null) {
+				getRevisitDigestCache().put(rowKey, getStoredDigest(payloadDigest));
+			}
+			boolean written = false;
+			try {
+				writePut(batchPut);
+				written = true;
+			} finally {
+				if (!written && payloadDigest != null) {
+					getRevisitDigestCache().remove(rowKey);
+				}
+			}
+
+			// the raw row is written, enrich it in the background
+			if (body != null && getEnrichmentStage() != null) {
+				getEnrichmentStage().offer(curi, batchPut.getRow(), batchPut.getTimeStamp(), body);
+			}
+		} finally {
+			IOUtils.closeStream(replayInputStream);
+		}
+	}
+
+	/**
+	 * Writes the given Put to HBase. When content is kept in a separate table,
+	 * or is written to the write ahead log differently from the rest of the
+	 * row, the content column family is moved into its own Put, with the same
+	 * rowkey and timestamp, and written to the content table.
+	 * 
+	 * @param batchPut
+	 *            the put holding every column of a crawled url
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void writePut(final Put batchPut) throws IOException {
+		boolean contentToWal = getHbaseOptions().getContentDurability() != WriteDurability.SKIP_WAL;
+		boolean curiToWal = getHbaseOptions().getCuriDurability() != WriteDurability.SKIP_WAL;
+		// the wal flag is per put, so content goes in its own put if it differs
+		if (getContentClient() != getClient() || contentToWal != curiToWal) {
+			List<KeyValue> contentCells = batchPut.getFamilyMap().remove(Bytes.toBytes(getHbaseOptions().getContentColumnFamily()));
+			if (contentCells != null && !contentCells.isEmpty()) {
+				Put contentPut = new Put(batchPut.getRow(), batchPut.getTimeStamp());
+				for (KeyValue contentCell : contentCells) {
+					contentPut.add(contentCell);
+				}
+				contentPut.setWriteToWAL(contentToWal);
+				routePut(getContentClient(), contentPut);
+			}
+			if (batchPut.isEmpty()) {
+				return;
+			}
+		}
+		batchPut.setWriteToWAL(curiToWal);
+		routePut(getClient(), batchPut);
+	}
+
+	/**
+	 * Writes a Put to the given table, through the region batcher if region
+	 * batching is on.
+	 * 
+	 * @param table
+	 *            the table
+	 * @param put
+	 *            the put
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void routePut(final HTable table, final Put put) throws IOException {
+		if (isLargePut(put)) {
+			putLarge(table, put);
+			return;
+		}
+		if (getBatcher() == null) {
+			putWithRetry(table, put);
+			return;
+		}
+		HRegionLocation location = locateRegion(table, put.getRow());
+		String region = getRegionName(table, location);
+		String server = (location != null && location.getServerAddress() != null) ? location.getServerAddress().toString() : null;
+		for (RegionGroupedBatcher.Group group : getBatcher().add(table, region, server, put)) {
+			flushGroup(group);
+		}
+	}
+
+	/**
+	 * Checks if a put is large enough to be written on its own, by its
+	 * serialized size.
+	 * 
+	 * @param put
+	 *            the put
+	 * 
+	 * @return true, if large
+	 */
+	protected boolean isLargePut(final Put put) {
+		return getLargePutPermits() != null && getSerializedSize(put) >= getHbaseOptions().getLargePutThresholdBytes();
+	}
+
+	/**
+	 * Gets the size of a put on the wire, the sum of the lengths of its
+	 * KeyValues, without the object overhead heapSize() adds.
+	 * 
+	 * @param put
+	 *            the put
+	 * 
+	 * @return the serialized size in bytes
+	 */
+	static long getSerializedSize(final Put put) {
+		long bytes = 0;
+		for (List<KeyValue> cells : put.getFamilyMap().values()) {
+			for (KeyValue cell : cells) {
+				bytes += cell.getLength();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes a large put straight away through an unbuffered client of the
+	 * table, holding one of the pool's large put permits, so a large body
+	 * neither waits in nor holds up the write buffer and region batches of
+	 * the small puts.
+	 * 
+	 * @param table
+	 *            the table
+	 * @param put
+	 *            the put
+	 * 
+	 * @throws IOException
+	 *             if the put can't be retried or queued
+	 */
+	protected void putLarge(final HTable table, final Put put) throws IOException {
+		try {
+			getLargePutPermits().acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting to write a large put of row " + Bytes.toStringBinary(put.getRow()));
+		}
+		try {
+			putWithRetry(getLargePutClient(table), put);
+		} finally {
+			getLargePutPermits().release();
+		}
+	}
+
+	/**
+	 * Gets the unbuffered client large puts to a table are written through,
+	 * creating it on first use. It shares the table client's configuration,
+	 * and so its connection.
+	 * 
+	 * @param table
+	 *            the table
+	 * 
+	 * @return the large put client
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected HTable getLargePutClient(final HTable table) throws IOException {
+		HTable largePutClient = largePutClients.get(table);
+		if (largePutClient == null) {
+			largePutClient = new HTable(table.getConfiguration(), table.getTableName());
+			largePutClients.put(table, largePutClient);
+		}
+		return largePutClient;
+	}
+
+	/**
+	 * Writes the puts of a region group in one multi put. If it fails, the
+	 * region's location is refreshed, in case it split or moved, and the puts
+	 * go through {@link #putWithRetry(HTable, Put)} one by one.
+	 * 
+	 * @param group
+	 *            the group
+	 * 
+	 * @throws IOException
+	 *             if a put can't be retried or queued
+	 */
+	protected void flushGroup(final RegionGroupedBatcher.Group group) throws IOException {
+		if (getCircuitBreaker().allowRequest(group.getRegion())) {
+			boolean resolved = false;
+			try {
+				putBatch(group.getTable(), group.getPuts());
+				getCircuitBreaker().recordSuccess(group.getRegion());
+				resolved = true;
+				return;
+			} catch (IOException e) {
+				getCircuitBreaker().recordFailure(group.getRegion());
+				resolved = true;
+				log.log(Level.FINE, "Batch of " + group.getPuts().size() + " puts to region " + group.getRegion() + " on " + group.getServer()
+						+ " failed, retrying them one by one", e);
+				relocateRegion(group.getTable(), group.getPuts().get(0).getRow());
+			} finally {
+				if (!resolved) {
+					getCircuitBreaker().releaseProbe(group.getRegion());
+				}
+			}
+		}
+		// puts to an open circuit are queued by putWithRetry
+		IOException failure = null;
+		for (Put put : group.getPuts()) {
+			try {
+				putWithRetry(group.getTable(), put);
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Flushes every region group of the batcher.
+	 * 
+	 * @throws IOException
+	 *             if a put can't be retried or queued
+	 */
+	public void flushBatches() throws IOException {
+		if (getBatcher() == null) {
+			return;
+		}
+		writeLock.lock();
+		try {
+			flushGroups(getBatcher().drain());
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes everything the writer holds back: its region batches and the
+	 * client side write buffers of its tables. A writer kept by a thread or
+	 * stripe is never returned to the pool, so this is how the pool gets its
+	 * puts to HBase before a checkpoint.
+	 * 
+	 * @throws IOException
+	 *             if a put can't be retried or queued, or a write buffer
+	 *             failed to flush
+	 */
+	public void flushAll() throws IOException {
+		writeLock.lock();
+		try {
+			IOException failure = null;
+			try {
+				flushBatches();
+			} catch (IOException e) {
+				failure = e;
+			}
+			try {
+				flushCommits(getClient());
+				if (getContentClient() != getClient()) {
+					flushCommits(getContentClient());
+				}
+			} catch (IOException e) {
+				failure = e;
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes the region groups that are due, unless another thread is
+	 * writing with this writer, in which case it flushes them itself as it
+	 * adds its puts. The pool calls this on a timer, so the puts of a writer
+	 * left idle don't wait in its batches for longer than
+	 * regionBatchMaxDelayMs.
+	 * 
+	 * @throws IOException
+	 *             if a put can't be retried or queued
+	 */
+	public void flushDueBatches() throws IOException {
+		if (getBatcher() == null || !writeLock.tryLock()) {
+			return;
+		}
+		try {
+			flushGroups(getBatcher().drainDue());
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Flushes region groups, carrying on past a failed one.
+	 * 
+	 * @param groups
+	 *            the groups
+	 * 
+	 * @throws IOException
+	 *             if a put can't be retried or queued
+	 */
+	private void flushGroups(final List<RegionGroupedBatcher.Group> groups) throws IOException {
+		IOException failure = null;
+		for (RegionGroupedBatcher.Group group : groups) {
+			try {
+				flushGroup(group);
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Writes a Put to the given table, retrying retriable failures with a
+	 * jittered exponential backoff. Puts to a region whose circuit is open,
+	 * and puts that run out of retries, are queued to be tried again by a
+	 * later write rather than dropped.
+	 * 
+	 * @param table
+	 *            the table
+	 * @param put
+	 *            the put
+	 * 
+	 * @throws IOException
+	 *             if the failure can't be retried, or the put can't be queued
+	 */
+	protected void putWithRetry(final HTable table, final Put put) throws IOException {
+		// rather than stall the fetch on a full window, spool the put
+		if (getSpool() != null && getFlowController() != null && getFlowController().isWindowFull(put.heapSize())) {
+			spool(table, put);
+			return;
+		}
+		String region = getRegionName(table, put.getRow());
+		if (!getCircuitBreaker().allowRequest(region)) {
+			queueFailedPut(table, put, region, null);
+			return;
+		}
+		IOException lastFailure = null;
+		// whether a put let through by the circuit breaker has no outcome yet
+		boolean pending = true;
+		try {
+			for (int attempt = 0; attempt <= getHbaseOptions().getWriteRetries(); attempt++) {
+				if (attempt > 0) {
+					backoff(attempt);
+					if (!getCircuitBreaker().allowRequest(region)) {
+						break;
+					}
+					pending = true;
+				}
+				try {
+					put(table, put);
+					getCircuitBreaker().recordSuccess(region);
+					pending = false;
+					return;
+				} catch (IOException e) {
+					if (!isRetriable(e)) {
+						throw e;
+					}
+					lastFailure = e;
+					getCircuitBreaker().recordFailure(region);
+					pending = false;
+					log.log(Level.FINE, "Put of row " + Bytes.toStringBinary(put.getRow()) + " to region " + region + " failed, attempt " + (attempt + 1), e);
+				}
+			}
+		} finally {
+			// a rejected or interrupted put leaves the probe to the next one
+			if (pending) {
+				getCircuitBreaker().releaseProbe(region);
+			}
+		}
+		queueFailedPut(table, put, region, lastFailure);
+	}
+
+	/**
+	 * Queues a put that couldn't be written, in the local spool if there is
+	 * one, otherwise in the failed put queue.
+	 * 
+	 * @param table
+	 *            the table
+	 * @param put
+	 *            the put
+	 * @param region
+	 *            the region
+	 * @param failure
+	 *            the last failure, or null if the put wasn't attempted
+	 * 
+	 * @throws IOException
+	 *             if the queue is full
+	 */
+	private void queueFailedPut(final HTable table, final Put put, final String region, final IOException failure) throws IOException {
+		if (getSpool() != null) {
+			spool(table, put);
+			return;
+		}
+		if (getFailedPutQueue().offer(new FailedPutQueue.FailedPut(getTableName(table), put, region))) {
+			log.warning("Queued put of row " + Bytes.toStringBinary(put.getRow()) + " to region " + region + " for a later retry, "
+					+ getFailedPutQueue().size() + " puts (" + getFailedPutQueue().getBytes() + " bytes) queued");
+			return;
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		throw new IOException("Circuit of region " + region + " is open and the failed put queue is full");
+	}
+
+	/**
+	 * Appends a put to the local spool, to be replayed by the SpoolReplayer.
+	 * 
+	 * @param table
+	 *            the table
+	 * @param put
+	 *            the put
+	 * 
+	 * @throws IOException
+	 *             if the put can't be spooled
+	 */
+	private void spool(final HTable table, final Put put) throws IOException {
+		getSpool().append(getTableName(table), put);
+		if (log.isLoggable(Level.FINE)) {
+			log.fine("Spooled put of row " + Bytes.toStringBinary(put.getRow()) + ", " + getSpool().getSpooledBytes() + " bytes spooled");
+		}
+	}
+
+	/**
+	 * Tries again some of the puts that failed earlier, before this writer's
+	 * own write. A replayed put takes the same path as a new one, so a large
+	 * put goes through its own client and a small one into the region
+	 * batches or the write buffer. Puts to regions whose circuit is still
+	 * open go back on the queue.
+	 * 
+	 * @param maxPuts
+	 *            the most puts to try
+	 */
+	protected void replayFailedPuts(final int maxPuts) {
+		for (int i = 0; i < maxPuts; i++) {
+			FailedPutQueue.FailedPut failedPut = getFailedPutQueue().poll();
+			if (failedPut == null) {
+				return;
+			}
+			if (!isOwnTable(failedPut.getTableName()) || !getCircuitBreaker().isReady(failedPut.getRegion())) {
+				// not ours to write or not yet, put it back for later
+				if (!getFailedPutQueue().offer(failedPut)) {
+					dropPut(failedPut.getTableName(), failedPut.getPut(), new IOException("Failed put queue is full"));
+				}
+				continue;
+			}
+			try {
+				// retriable failures are queued again on the way
+				routePut(getTable(failedPut.getTableName()), failedPut.getPut());
+			} catch (IOException e) {
+				dropPut(failedPut.getTableName(), failedPut.getPut(), e);
+			}
+		}
+	}
+
+	/**
+	 * Gives up on a put no caller sees fail. The failure is counted here, and
+	 * the digest cached for the row is forgotten, so the next fetch of the url
+	 * checks what is actually stored rather than taking the content it never
+	 * wrote as unchanged.
+	 * 
+	 * @param tableName
+	 *            the table name
+	 * @param put
+	 *            the put
+	 * @param failure
+	 *            the failure
+	 */
+	protected void dropPut(final String tableName, final Put put, final IOException failure) {
+		getRevisitDigestCache().remove(Bytes.toString(put.getRow()));
+		getMetrics().recordFailure(failure);
+		log.log(Level.SEVERE, "Dropping put of row " + Bytes.toStringBinary(put.getRow()) + " to table " + tableName, failure);
+	}
+
+	/**
+	 * Gets this writer's client of the named table.
+	 * 
+	 * @param tableName
+	 *            the table name
+	 * 
+	 * @return the client, or null if this writer doesn't write the table
+	 */
+	protected HTable getTable(final String tableName) {
+		if (tableName.equals(getTableName(getClient()))) {
+			return getClient();
+		}
+		if (tableName.equals(getTableName(getContentClient()))) {
+			return getContentClient();
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the name of a table, as failed puts are queued and spooled under.
+	 * 
+	 * @param table
+	 *            the table
+	 * 
+	 * @return the table name
+	 */
+	protected String getTableName(final HTable table) {
+		return Bytes.toString(table.getTableName());
+	}
+
+	/**
+	 * Checks if this writer writes to a table, and so can replay its puts.
+	 * 
+	 * @param tableName
+	 *            the table name
+	 * 
+	 * @return true, if the table is one of this writer's
+	 */
+	protected boolean isOwnTable(final String tableName) {
+		return getTable(tableName) != null;
+	}
+
+	/**
+	 * Checks if a failed put may succeed when tried again.
+	 * 
+	 * @param e
+	 *            the failure
+	 * 
+	 * @return true, if it is retriable
+	 */
+	protected boolean isRetriable(final IOException e) {
+		return !(e instanceof DoNotRetryIOException);
+	}
+
+	/**
+	 * Sleeps before a retry, for a random time up to an exponentially growing
+	 * limit, so threads failing together don't retry together.
+	 * 
+	 * @param attempt
+	 *            the attempt about to be made, starting at 1
+	 * 
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted
+	 */
+	private void backoff(final int attempt) throws InterruptedIOException {
+		long limit = Math.min(getHbaseOptions().getRetryMaxDelayMs(), getHbaseOptions().getRetryBaseDelayMs() << Math.min(attempt - 1, 30));
+		long delay = (long) (Math.random() * limit);
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while backing off before retrying a put");
+		}
+	}
+
+	/**
+	 * Gets the name of the region holding the given row, falling back to the
+	 * table name if the region can't be located.
+	 * 
+	 * @param table
+	 *            the table
+	 * @param row
+	 *            the row
+	 * 
+	 * @return the region name
+	 */
+	protected String getRegionName(final HTable table, final byte[] row) {
+		return getRegionName(table, locateRegion(table, row));
+	}
+
+	/**
+	 * Gets the name of a located region, falling back to the table name.
+	 * 
+	 * @param table
+	 *            the table
+	 * @param location
+	 *            the region location, or null
+	 * 
+	 * @return the region name
+	 */
+	private static String getRegionName(final HTable table, final HRegionLocation location) {
+		if (location != null && location.getRegionInfo() != null) {
+			return location.getRegionInfo().getRegionNameAsString();
+		}
+		return Bytes.toString(table.getTableName());
+	}
+
+	/**
+	 * Gets the cached location of the region holding the given row.
+	 * 
+	 * @param table
+	 *            the table
+	 * @param row
+	 *            the row
+	 * 
+	 * @return the region location, or null if it can't be located
+	 */
+	protected HRegionLocation locateRegion(final HTable table, final byte[] row) {
+		try {
+			return table.getRegionLocation(row);
+		} catch (IOException e) {
+			log.log(Level.FINE, "Couldn't locate region of row " + Bytes.toStringBinary(row), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Looks up the region holding the given row again, replacing its cached
+	 * location after a split or a move.
+	 * 
+	 * @param table
+	 *            the table
+	 * @param row
+	 *            the row
+	 */
+	protected void relocateRegion(final HTable table, final byte[] row) {
+		try {
+			table.getConnection().relocateRegion(table.getTableName(), row);
+		} catch (IOException e) {
+			log.log(Level.FINE, "Couldn't relocate region of row " + Bytes.toStringBinary(row), e);
+		}
+	}
+
+	/**
+	 * Writes a Put to the given table, recording its latency and size in the
+	 * metrics. A failure is counted once, by whoever gives up on the put, not
+	 * on every attempt.
+	 * 
+	 * @param table
+	 *            the table
+	 * @param put
+	 *            the put
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void put(final HTable table, final Put put) throws IOException {
+		// wait for room in the flow control window, if there is one
+		long bytes = put.heapSize();
+		if (getFlowController() != null) {
+			try {
+				getFlowController().acquire(bytes);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted waiting to write to table: " + Bytes.toString(table.getTableName()));
+			}
+		}
+		// a put to a buffering client is only an rpc when it flushes the
+		// buffer, so only then is its time a latency the window responds to
+		int buffered = table.isAutoFlush() ? 0 : table.getWriteBuffer().size();
+		boolean flushed = true;
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			table.put(put);
+			flushed = table.isAutoFlush() || table.getWriteBuffer().size() <= buffered;
+			success = true;
+		} catch (IOException e) {
+			if (table.isAutoFlush()) {
+				discardFailedPuts(table);
+				throw e;
+			}
+			// the put only triggered the flush of a buffer it may not be in
+			if (requeueBufferedPuts(table, put, e)) {
+				throw e;
+			}
+		} finally {
+			if (getFlowController() != null) {
+				if (flushed) {
+					getFlowController().release(bytes, System.nanoTime() - start, success);
+				} else {
+					getFlowController().release(bytes);
+				}
+			}
+		}
+		getMetrics().recordPut(System.nanoTime() - start, put);
+	}
+
+	/**
+	 * Writes a batch of Puts to the given table in one multi put, recording
+	 * them in the metrics.
+	 * 
+	 * @param table
+	 *            the table
+	 * @param puts
+	 *            the puts
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected void putBatch(final HTable table, final List<Put> puts) throws IOException {
+		long bytes = 0;
+		for (Put put : puts) {
+			bytes += put.heapSize();
+		}
+		if (getFlowController() != null) {
+			try {
+				getFlowController().acquire(bytes);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted waiting to write to table: " + Bytes.toString(table.getTableName()));
+			}
+		}
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			table.put(puts);
+			success = true;
+		} catch (IOException e) {
+			discardFailedPuts(table);
+			throw e;
+		} finally {
+			if (getFlowController() != null) {
+				getFlowController().release(bytes, System.nanoTime() - start, success);
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		for (Put put : puts) {
+			getMetrics().recordPut(nanos, put);
+		}
+	}
+
+	/**
+	 * Takes the puts a failed flush left in the write buffer of a table that
+	 * isn't auto flushing out of the buffer, so they aren't sent again with
+	 * the next put. Each of them but the given put, which the caller retries
+	 * itself, is queued against its own region, and the circuit of every
+	 * region that failed is charged once.
+	 * 
+	 * @param table
+	 *            the table
+	 * @param put
+	 *            the put whose write triggered the flush, or null
+	 * @param failure
+	 *            the failure of the flush
+	 * 
+	 * @return true, if the given put was left in the buffer, and so failed
+	 */
+	protected boolean requeueBufferedPuts(final HTable table, final Put put, final IOException failure) {
+		List<Put> failedPuts = new ArrayList<Put>(table.getWriteBuffer());
+		table.getWriteBuffer().clear();
+		boolean failed = false;
+		for (Put failedPut : failedPuts) {
+			failed |= failedPut == put;
+		}
+		Set<String> failedRegions = new HashSet<String>();
+		if (failed) {
+			// the caller charges the region of its own put
+			failedRegions.add(getRegionName(table, put.getRow()));
+		}
+		for (Put failedPut : failedPuts) {
+			if (failedPut == put) {
+				continue;
+			}
+			String region = getRegionName(table, failedPut.getRow());
+			if (failedRegions.add(region)) {
+				getCircuitBreaker().recordFailure(region);
+			}
+			try {
+				queueFailedPut(table, failedPut, region, failure);
+			} catch (IOException e) {
+				dropPut(getTableName(table), failedPut, e);
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Sends the puts buffered by a table client that isn't auto flushing. If
+	 * the flush fails, the puts it left in the buffer are queued against their
+	 * own regions, like any other failed put.
+	 * 
+	 * @param table
+	 *            the table
+	 * 
+	 * @throws IOException
+	 *             if the flush failed
+	 */
+	protected void flushCommits(final HTable table) throws IOException {
+		if (table == null || table.isAutoFlush()) {
+			return;
+		}
+		try {
+			table.flushCommits();
+		} catch (IOException e) {
+			requeueBufferedPuts(table, null, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Drops the puts a failed flush leaves in the write buffer of an auto
+	 * flushing table. The caller retries or queues them itself, and they would
+	 * otherwise be sent again with the next put.
+	 * 
+	 * @param table
+	 *            the table
+	 */
+	private static void discardFailedPuts(final HTable table) {
+		if (table.isAutoFlush() && table.getWriteBuffer() != null) {
+			table.getWriteBuffer().clear();
+		}
+	}
+
+	/**
+	 * Flushes any buffered puts and closes the table clients.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void close() throws IOException {
+		// last chance for batched and queued puts to this writer's tables
+		try {
+			flushBatches();
+		} finally {
+			replayFailedPuts(getFailedPutQueue().size());
+			try {
+				// replayed puts may have gone into the region batches
+				flushBatches();
+			} finally {
+				if (getFailedPutQueue().size() > 0) {
+					log.warning(getFailedPutQueue().size() + " failed puts are still queued after closing writer " + this);
+				}
+			}
+		}
+		try {
+			for (HTable largePutClient : largePutClients.values()) {
+				largePutClient.close();
+			}
+			getClient().close();
+		} finally {
+			if (getContentClient() != getClient()) {
+				getContentClient().close();
+			}
+			super.close();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.archive.io.hbase.Serializer#serialize(byte[])
 	 */
 	@Override
 	public byte[] serialize(byte[] bytes) {
 		if (getHbaseOptions().getSerializer() != null) {
-			return getHbaseOptions().getSerializer().serialize(bytes);
+			long start = System.nanoTime();
+			try {
+				return getHbaseOptions().getSerializer().serialize(bytes);
+			} finally {
+				getMetrics().recordSerialize(System.nanoTime() - start);
+			}
 		}
 		return bytes;
 	}
@@ -507,13 +507,31 @@ That's all there is to it!
 
 package org.archive.io.hbase;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.archive.io.WriterPool;
 import org.archive.io.WriterPoolMember;
 import org.archive.io.WriterPoolSettings;
 
+import com.google.common.base.Preconditions;
+
 // TODO: Auto-generated Javadoc
 /**
  * The Class HBaseWriterPool.
@@ -523,9 +541,75 @@ import org.archive.io.WriterPoolSettings;
  */
 public class HBaseWriterPool extends WriterPool {
 
+	/** The log. */
+	private static final Logger log = Logger.getLogger(HBaseWriterPool.class.getName());
+
 	/** The _parameters. */
 	private HBaseParameters _parameters;
 
+	/** The revisit digest cache shared by all writers of this pool. */
+	private final RevisitDigestCache _revisitDigestCache;
+
+	/** The metrics shared by all writers of this pool. */
+	private final HBaseWriterMetrics _metrics;
+
+	/** The pool maximum active. */
+	private final int _poolMaximumActive;
+
+	/** The read only clients for existence checks, kept apart from the writers. */
+	private final HBaseLookupPool _lookupPool;
+
+	/** The flow controller shared by all writers, if flow control is enabled. */
+	private final WriteFlowController _flowController;
+
+	/** The circuit breaker shared by all writers. */
+	private final RegionCircuitBreaker _circuitBreaker;
+
+	/** The failed puts shared by all writers. */
+	private final FailedPutQueue _failedPutQueue;
+
+	/** The local spool shared by all writers, if a spool directory is set. */
+	private final LocalSpool _spool;
+
+	/** The thread replaying the local spool. */
+	private final SpoolReplayer _spoolReplayer;
+
+	/** The content processors shared by all writers, if any are registered. */
+	private final ContentProcessorPipeline _contentProcessors;
+
+	/** The stage enriching written rows, if enrichment is deferred. */
+	private final EnrichmentStage _enrichmentStage;
+
+	/** The bytes and rows written per host, if host quotas are set. */
+	private final HostWriteQuotas _hostWriteQuotas;
+
+	/** The permits of the large put path, if large puts are written on their own. */
+	private final Semaphore _largePutPermits;
+
+	/** The request template shared by all writers. */
+	private final RequestTemplateCodec _requestTemplateCodec = new RequestTemplateCodec();
+
+	/** How often each writer of the pool has been borrowed. */
+	private final ConcurrentMap<WriterPoolMember, AtomicLong> _memberUses = new ConcurrentHashMap<WriterPoolMember, AtomicLong>();
+
+	/** The time of the last pool summary, in nanos. */
+	private final AtomicLong _lastSummaryNanos = new AtomicLong(System.nanoTime());
+
+	/** How writers are handed out to threads. */
+	private final WriterAffinity _affinity;
+
+	/** The writer of each toe thread, in THREAD affinity mode. */
+	private final ConcurrentMap<Thread, WriterPoolMember> _threadWriters = new ConcurrentHashMap<Thread, WriterPoolMember>();
+
+	/** The writer of each stripe, in STRIPED affinity mode. */
+	private final WriterPoolMember[] _stripeWriters;
+
+	/** The lock of each stripe, in STRIPED affinity mode. */
+	private final ReentrantLock[] _stripeLocks;
+
+	/** The timer flushing the due region batches of idle writers, if region batching is enabled. */
+	private final ScheduledExecutorService _batchFlusher;
+
 	/**
 	 * Instantiates a new h base writer pool.
 	 *
@@ -540,6 +624,456 @@ public class HBaseWriterPool extends WriterPool {
 		super(serial, settings, poolMaximumActive, poolMaximumWait);
 
 		_parameters = parameters;
+		_poolMaximumActive = poolMaximumActive;
+		// a crawl epoch taken from the clock would differ after a restart or
+		// checkpoint resume, splitting the job over two versions
+		Preconditions.checkArgument(parameters == null || parameters.getTimestampPolicy() != TimestampPolicy.CRAWL_EPOCH
+				|| parameters.getCrawlEpoch() > 0, "The CRAWL_EPOCH timestampPolicy needs an explicit crawlEpoch");
+		_revisitDigestCache = new RevisitDigestCache(parameters != null ? parameters.getRevisitDigestCacheSize() : HBaseParameters.REVISIT_DIGEST_CACHE_SIZE);
+		_metrics = new HBaseWriterMetrics(parameters != null ? parameters.getMetricsRegistry() : null);
+		if (parameters != null && parameters.isJmxEnabled()) {
+			_metrics.registerMBean(parameters.getHbaseTableName());
+		}
+
+		_lookupPool = (parameters != null) ? new HBaseLookupPool(parameters, parameters.getHbaseTableName()) : null;
+		_flowController = (parameters != null && parameters.isFlowControlEnabled()) ? new WriteFlowController(parameters.getFlowControlInitialWindowBytes(),
+				parameters.getFlowControlMinWindowBytes(), parameters.getFlowControlMaxWindowBytes(), parameters.getTargetPutLatencyMs()) : null;
+
+		_circuitBreaker = (parameters != null) ? new RegionCircuitBreaker(parameters.getCircuitBreakerFailureThreshold(), parameters.getCircuitBreakerOpenMs())
+				: null;
+		_failedPutQueue = (parameters != null) ? new FailedPutQueue(parameters.getFailedPutQueueSize(), parameters.getFailedPutQueueMaxBytes()) : null;
+		_contentProcessors = (parameters != null && !parameters.getContentProcessors().isEmpty()) ? new ContentProcessorPipeline(
+				parameters.getContentProcessors(), parameters.getContentProcessorThreads(), parameters.getContentProcessorTimeoutMs()) : null;
+		if (_contentProcessors != null && parameters.isDeferredEnrichment()) {
+			_enrichmentStage = new EnrichmentStage(parameters, _contentProcessors);
+			_enrichmentStage.start();
+			_metrics.setEnrichmentStage(_enrichmentStage);
+		} else {
+			_enrichmentStage = null;
+		}
+		_hostWriteQuotas = (parameters != null && (parameters.getHostQuotaBytes() > 0 || parameters.getHostQuotaRows() > 0)) ? new HostWriteQuotas(
+				parameters.getHostQuotaBytes(), parameters.getHostQuotaRows()) : null;
+		_largePutPermits = (parameters != null && parameters.getLargePutThresholdBytes() > 0) ? new Semaphore(parameters.getLargePutConcurrency(), true)
+				: null;
+		_spool = createSpool(parameters);
+		if (_spool != null) {
+			_spoolReplayer = new SpoolReplayer(parameters, _spool, _flowController);
+			_spoolReplayer.start();
+		} else {
+			_spoolReplayer = null;
+		}
+
+		_affinity = (parameters != null) ? parameters.getWriterAffinity() : WriterAffinity.POOLED;
+		int stripes = (parameters != null && parameters.getWriterStripes() > 0) ? parameters.getWriterStripes() : Math.max(1, poolMaximumActive);
+		_stripeWriters = new WriterPoolMember[(_affinity == WriterAffinity.STRIPED) ? stripes : 0];
+		_stripeLocks = new ReentrantLock[_stripeWriters.length];
+		for (int i = 0; i < _stripeLocks.length; i++) {
+			_stripeLocks[i] = new ReentrantLock();
+		}
+
+		// a due batch of a writer nobody is writing with would otherwise wait for its next put
+		if (parameters != null && parameters.getRegionBatchBytes() > 0) {
+			long period = Math.max(1, parameters.getRegionBatchMaxDelayMs() / 2);
+			_batchFlusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "HBaseWriter-BatchFlusher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			_batchFlusher.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					flushDueBatches();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		} else {
+			_batchFlusher = null;
+		}
+	}
+
+	/**
+	 * Flushes the region batches and write buffers of every writer of the
+	 * pool, waiting for writers in use to finish their write. Writers kept by
+	 * a thread or stripe are never returned or closed before the pool is,
+	 * so their puts would otherwise sit in their buffers across a checkpoint.
+	 * 
+	 * @throws IOException
+	 *             if a writer failed to flush, after trying the others
+	 */
+	public void flushWriters() throws IOException {
+		IOException failure = null;
+		for (WriterPoolMember writer : _memberUses.keySet()) {
+			try {
+				((HBaseWriter) writer).flushAll();
+			} catch (IOException e) {
+				log.log(Level.WARNING, "Failed to flush writer " + writer, e);
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Flushes the due region batches of every writer of the pool that isn't
+	 * writing right now. A writer that is writing flushes its due batches
+	 * itself.
+	 */
+	protected void flushDueBatches() {
+		for (WriterPoolMember writer : _memberUses.keySet()) {
+			try {
+				((HBaseWriter) writer).flushDueBatches();
+			} catch (IOException e) {
+				// the writer counted the puts it gave up on
+				log.log(Level.WARNING, "Failed to flush the due region batches of writer " + writer, e);
+			} catch (RuntimeException e) {
+				log.log(Level.WARNING, "Failed to flush the due region batches of writer " + writer, e);
+			}
+		}
+	}
+
+	/**
+	 * Gets the metrics.
+	 *
+	 * @return the metrics
+	 */
+	public HBaseWriterMetrics getMetrics() {
+		return _metrics;
+	}
+
+	/**
+	 * Gets the lookup pool.
+	 *
+	 * @return the lookup pool
+	 */
+	public HBaseLookupPool getLookupPool() {
+		return _lookupPool;
+	}
+
+	/**
+	 * Gets the flow controller.
+	 *
+	 * @return the flow controller, or null if flow control is disabled
+	 */
+	public WriteFlowController getFlowController() {
+		return _flowController;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.archive.io.WriterPool#borrowFile()
+	 */
+	@Override
+	public WriterPoolMember borrowFile() throws IOException {
+		if (_affinity == WriterAffinity.THREAD) {
+			return borrowThreadWriter();
+		}
+		if (_affinity == WriterAffinity.STRIPED) {
+			return borrowStripeWriter();
+		}
+
+		_metrics.beginBorrow();
+		long start = System.nanoTime();
+		WriterPoolMember member = null;
+		try {
+			member = super.borrowFile();
+		} finally {
+			_metrics.endBorrow(System.nanoTime() - start, member != null);
+		}
+		long waitMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		AtomicLong uses = (member != null) ? _memberUses.get(member) : null;
+		if (uses != null) {
+			uses.incrementAndGet();
+		}
+
+		// the pool is likely too small if threads have to wait this long
+		long slowBorrowThresholdMs = (_parameters != null) ? _parameters.getSlowBorrowThresholdMs() : HBaseParameters.SLOW_BORROW_THRESHOLD_MS;
+		if (slowBorrowThresholdMs > 0 && waitMs >= slowBorrowThresholdMs) {
+			log.warning("Waited " + waitMs + "ms to borrow a writer, " + _metrics.getWritersInUse() + " of " + _poolMaximumActive + " writers in use and "
+					+ _metrics.getBorrowQueueDepth() + " threads waiting. Suggested poolMaxActive: " + _metrics.getSuggestedPoolSize());
+		}
+		logSummaryIfDue();
+		return member;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.archive.io.WriterPool#returnFile(org.archive.io.WriterPoolMember)
+	 */
+	@Override
+	public void returnFile(WriterPoolMember writer) throws IOException {
+		if (_affinity == WriterAffinity.THREAD) {
+			// the writer stays with its thread
+			return;
+		}
+		if (_affinity == WriterAffinity.STRIPED) {
+			ReentrantLock stripeLock = _stripeLocks[getStripe()];
+			if (stripeLock.isHeldByCurrentThread()) {
+				_metrics.returned();
+				stripeLock.unlock();
+			}
+			return;
+		}
+		_metrics.returned();
+		super.returnFile(writer);
+	}
+
+	/**
+	 * Gets the writer of the current thread, creating it on the thread's
+	 * first write. Only a lock free map lookup on the hot path.
+	 * 
+	 * @return the writer of the current thread
+	 */
+	protected WriterPoolMember borrowThreadWriter() {
+		Thread thread = Thread.currentThread();
+		WriterPoolMember writer = _threadWriters.get(thread);
+		if (writer == null) {
+			// a new thread is a good moment to clean up after dead ones
+			reclaimDeadThreadWriters();
+			writer = makeWriter();
+			_threadWriters.put(thread, writer);
+			if (log.isLoggable(Level.FINE)) {
+				log.fine("Created writer for thread " + thread.getName() + ", " + _threadWriters.size() + " thread writers");
+			}
+		}
+		AtomicLong uses = _memberUses.get(writer);
+		if (uses != null) {
+			uses.incrementAndGet();
+		}
+		return writer;
+	}
+
+	/**
+	 * Locks the stripe of the current thread and gets its writer, creating it
+	 * on first use. The lock is released by {@link #returnFile(WriterPoolMember)}.
+	 * 
+	 * @return the writer of the current thread's stripe
+	 */
+	protected WriterPoolMember borrowStripeWriter() {
+		int stripe = getStripe();
+		_metrics.beginBorrow();
+		long start = System.nanoTime();
+		_stripeLocks[stripe].lock();
+		_metrics.endBorrow(System.nanoTime() - start, true);
+		try {
+			if (_stripeWriters[stripe] == null) {
+				_stripeWriters[stripe] = makeWriter();
+			}
+		} catch (RuntimeException e) {
+			_metrics.returned();
+			_stripeLocks[stripe].unlock();
+			throw e;
+		}
+		AtomicLong uses = _memberUses.get(_stripeWriters[stripe]);
+		if (uses != null) {
+			uses.incrementAndGet();
+		}
+		logSummaryIfDue();
+		return _stripeWriters[stripe];
+	}
+
+	/**
+	 * Gets the stripe of the current thread.
+	 * 
+	 * @return the stripe
+	 */
+	private int getStripe() {
+		return (int) (Thread.currentThread().getId() % _stripeLocks.length);
+	}
+
+	/**
+	 * Closes the writers of toe threads that have died, in THREAD affinity
+	 * mode. Called when a new thread asks for a writer and at checkpoints.
+	 */
+	public void reclaimDeadThreadWriters() {
+		for (Map.Entry<Thread, WriterPoolMember> threadWriter : _threadWriters.entrySet()) {
+			if (!threadWriter.getKey().isAlive() && _threadWriters.remove(threadWriter.getKey(), threadWriter.getValue())) {
+				log.info("Closing writer of dead thread " + threadWriter.getKey().getName());
+				closeQuietly(threadWriter.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Closes a writer, logging rather than throwing any failure.
+	 * 
+	 * @param writer
+	 *            the writer
+	 */
+	private void closeQuietly(WriterPoolMember writer) {
+		_memberUses.remove(writer);
+		try {
+			writer.close();
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Failed to close writer " + writer, e);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.archive.io.WriterPool#destroyWriter(org.archive.io.WriterPoolMember)
+	 */
+	@Override
+	public synchronized void destroyWriter(WriterPoolMember writer) throws IOException {
+		_memberUses.remove(writer);
+		super.destroyWriter(writer);
+	}
+
+	/**
+	 * Logs a summary of the pool usage, if the summary interval has passed
+	 * since the last one. Only one of the threads racing past the interval
+	 * logs it.
+	 * 
+	 * @return true, if this thread logged the summary
+	 */
+	protected boolean logSummaryIfDue() {
+		long intervalMs = (_parameters != null) ? _parameters.getPoolSummaryIntervalMs() : HBaseParameters.POOL_SUMMARY_INTERVAL_MS;
+		if (intervalMs <= 0) {
+			return false;
+		}
+		long now = System.nanoTime();
+		long last = _lastSummaryNanos.get();
+		if (now - last < TimeUnit.MILLISECONDS.toNanos(intervalMs) || !_lastSummaryNanos.compareAndSet(last, now)) {
+			return false;
+		}
+		int peakDemand = _metrics.resetPeakDemand();
+		if (log.isLoggable(Level.INFO)) {
+			log.info("HBaseWriterPool summary: " + _metrics.getWritersInUse() + " of " + _poolMaximumActive + " writers in use, "
+					+ _metrics.getBorrowQueueDepth() + " threads waiting, peak demand " + peakDemand + ", borrow wait " + _metrics.getBorrowWait()
+					+ ", uses per writer " + getMemberUses() + ". Suggested poolMaxActive: " + _metrics.getSuggestedPoolSize()
+					+ (_flowController != null ? ". Flow control: " + _flowController : "")
+				+ (_contentProcessors != null ? ". Content processing: " + _contentProcessors : "")
+				+ (_enrichmentStage != null ? ". Enrichment: " + _enrichmentStage : "")
+				+ (_hostWriteQuotas != null ? ". Host quotas: " + _hostWriteQuotas : ""));
+		}
+		return true;
+	}
+
+	/**
+	 * Gets how often each writer of the pool has been borrowed, most used
+	 * first.
+	 *
+	 * @return the uses per writer
+	 */
+	public List<Long> getMemberUses() {
+		List<Long> uses = new ArrayList<Long>(_memberUses.size());
+		for (AtomicLong memberUses : _memberUses.values()) {
+			uses.add(memberUses.get());
+		}
+		Collections.sort(uses, Collections.reverseOrder());
+		return uses;
+	}
+
+	/**
+	 * Opens the local spool, if a spool directory is set.
+	 * 
+	 * @param parameters
+	 *            the parameters
+	 * 
+	 * @return the spool, or null
+	 */
+	private static LocalSpool createSpool(HBaseParameters parameters) {
+		if (parameters == null || parameters.getSpoolDirectory() == null) {
+			return null;
+		}
+		try {
+			return new LocalSpool(new File(parameters.getSpoolDirectory()), parameters.getSpoolSegmentSizeBytes(), parameters.getSpoolForceBytes(),
+					parameters.getSpoolForceIntervalMs());
+		} catch (IOException e) {
+			log.log(Level.SEVERE, "Can't open the local spool in " + parameters.getSpoolDirectory() + ", writing without one", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the local spool.
+	 * 
+	 * @return the local spool, or null if there is none
+	 */
+	public LocalSpool getSpool() {
+		return _spool;
+	}
+
+	/**
+	 * Gets the content processor pipeline.
+	 * 
+	 * @return the content processors, or null if none are registered
+	 */
+	public ContentProcessorPipeline getContentProcessors() {
+		return _contentProcessors;
+	}
+
+	/**
+	 * Gets the enrichment stage.
+	 * 
+	 * @return the enrichment stage, or null if enrichment isn't deferred
+	 */
+	public EnrichmentStage getEnrichmentStage() {
+		return _enrichmentStage;
+	}
+
+	/**
+	 * Gets the host write quotas.
+	 * 
+	 * @return the host write quotas, or null if no host quota is set
+	 */
+	public HostWriteQuotas getHostWriteQuotas() {
+		return _hostWriteQuotas;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.archive.io.WriterPool#close()
+	 */
+	@Override
+	public void close() {
+		// stop the timer first, closing a writer flushes all of its batches
+		if (_batchFlusher != null) {
+			_batchFlusher.shutdown();
+			try {
+				_batchFlusher.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		_metrics.unregisterMBean();
+		if (_lookupPool != null) {
+			_lookupPool.close();
+		}
+		for (Thread thread : _threadWriters.keySet()) {
+			WriterPoolMember writer = _threadWriters.remove(thread);
+			if (writer != null) {
+				closeQuietly(writer);
+			}
+		}
+		for (int i = 0; i < _stripeWriters.length; i++) {
+			_stripeLocks[i].lock();
+			try {
+				if (_stripeWriters[i] != null) {
+					closeQuietly(_stripeWriters[i]);
+					_stripeWriters[i] = null;
+				}
+			} finally {
+				_stripeLocks[i].unlock();
+			}
+		}
+		super.close();
+		// the writers replayed what they could, nothing is left to try the rest
+		if (_failedPutQueue != null && _failedPutQueue.size() > 0) {
+			log.severe("Dropping " + _failedPutQueue.clear() + " failed puts still queued when closing the pool");
+		}
+		// the stage drains its backlog through the processors before they stop
+		if (_enrichmentStage != null) {
+			_enrichmentStage.shutdown();
+		}
+		if (_contentProcessors != null) {
+			_contentProcessors.shutdown();
+		}
+		// writers may spool while closing, so the spool goes last
+		if (_spoolReplayer != null) {
+			_spoolReplayer.shutdown();
+		}
+		if (_spool != null) {
+			_spool.close();
+		}
 	}
 
 	/* (non-Javadoc)
@@ -548,10 +1082,37 @@ public class HBaseWriterPool extends WriterPool {
 	@Override
 	protected WriterPoolMember makeWriter() {
 		try {
-			return new HBaseWriter(getSerialNo(), getSettings(), _parameters);
+			HBaseWriter writer = createWriter();
+			writer.setRevisitDigestCache(_revisitDigestCache);
+			writer.setMetrics(_metrics);
+			writer.setLookupPool(_lookupPool);
+			writer.setFlowController(_flowController);
+			writer.setCircuitBreaker(_circuitBreaker);
+			writer.setFailedPutQueue(_failedPutQueue);
+			writer.setSpool(_spool);
+			writer.setContentProcessors(_contentProcessors);
+			writer.setEnrichmentStage(_enrichmentStage);
+			writer.setLargePutPermits(_largePutPermits);
+			writer.setRequestTemplateCodec(_requestTemplateCodec);
+			_memberUses.put(writer, new AtomicLong());
+			return writer;
 		} catch (IOException e) {
 			throw new RuntimeException("Couldn't create a " + HBaseWriter.class.getName() + " writer object");
 		}
 	}
 
+	/**
+	 * Creates a writer on its own table clients, before the pool hands it
+	 * the state shared by all of its writers.
+	 * 
+	 * @return the writer
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	protected HBaseWriter createWriter() throws IOException {
+		return (_parameters.getBulkLoadDirectory() != null) ? new HBaseBulkLoadWriter(getSerialNo(), getSettings(), _parameters) : new HBaseWriter(
+				getSerialNo(), getSettings(), _parameters);
+	}
+
 }
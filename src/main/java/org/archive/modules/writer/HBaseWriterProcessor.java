@@ -511,15 +511,21 @@ import java.io.InputStream;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.httpclient.URIException;
 import org.apache.hadoop.hbase.client.Get;
-import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Keying;
 import org.apache.log4j.Logger;
+import org.archive.checkpointing.Checkpoint;
 import org.archive.io.ReplayInputStream;
+import org.archive.io.hbase.ContentSampling;
 import org.archive.io.hbase.HBaseParameters;
 import org.archive.io.hbase.HBaseWriter;
 import org.archive.io.hbase.HBaseWriterPool;
+import org.archive.io.hbase.HostWriteQuotas;
+import org.archive.io.hbase.WriteFlowController;
 import org.archive.io.warc.WARCWriterPoolSettings;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.ProcessResult;
@@ -583,6 +589,12 @@ public class HBaseWriterProcessor extends WriterPoolProcessor implements WARCWri
 	/** The Constant serialVersionUID. */
 	private static final long serialVersionUID = 7019522841438703184L;
 
+	/** The annotation of uris whose content is outside the sample written. */
+	public static final String ANNOTATION_CONTENT_UNSAMPLED = "contentUnsampled";
+
+	/** The annotation of uris of a host past its write quota. */
+	public static final String ANNOTATION_HOST_OVER_QUOTA = "hostOverQuota";
+
 	/** The hbase parameters. @see org.archive.io.hbase.HBaseParameters */
 	HBaseParameters hbaseParameters = null;
 
@@ -639,12 +651,16 @@ public class HBaseWriterProcessor extends WriterPoolProcessor implements WARCWri
 		ReplayInputStream replayInputStream = null;
 		try {
 			if (shouldWrite(curi)) {
+				applyBackpressure();
 				replayInputStream = curi.getRecorder().getRecordedInput().getReplayInputStream();
 				return write(curi, recordLength, replayInputStream);
 			}
 			log.info("Does not write " + curi.toString());
 		} catch (IOException e) {
 			curi.getNonFatalFailures().add(e);
+			if (getPool() instanceof HBaseWriterPool) {
+				((HBaseWriterPool) getPool()).getMetrics().recordFailure(e);
+			}
 			log.error("Failed write of Record: " + curi.toString(), e);
 		} finally {
 			ArchiveUtils.closeQuietly(replayInputStream);
@@ -712,35 +728,135 @@ public class HBaseWriterProcessor extends WriterPoolProcessor implements WARCWri
 		// don't write the record.
 		if (hbaseParameters.isOnlyWriteNewRecords()) {
 			try {
-				return isRecordNew(curi);
+				if (!isRecordNew(curi)) {
+					return false;
+				}
 			} catch (IOException e) {
 				log.error("Failed to write a new record for rowKey: " + curi.toString() + " using pool: " + getPool().toString(), e);
 			}
 		}
+
+		// Outside the content sample only the metadata is written.
+		if (!isContentSampled(curi)) {
+			curi.getAnnotations().add(ANNOTATION_CONTENT_UNSAMPLED);
+		}
+
+		// A host past its write quota is marked, cut to metadata, or skipped.
+		HostWriteQuotas quotas = getHostWriteQuotas();
+		if (quotas != null && quotas.isOverQuota(getHost(curi))) {
+			switch (hbaseParameters.getHostQuotaAction()) {
+			case SKIP:
+				curi.getAnnotations().add(ANNOTATION_UNWRITTEN + ":hostQuota");
+				return false;
+			case METADATA_ONLY:
+				curi.getAnnotations().add(ANNOTATION_CONTENT_UNSAMPLED);
+				// fall through
+			default:
+				curi.getAnnotations().add(ANNOTATION_HOST_OVER_QUOTA);
+			}
+		}
 		// all tests pass, return true to write the content locally.
 		return true;
 	}
 
+	/**
+	 * Checks if the content of a uri is in the sample written. The url or
+	 * host is hashed, so the same uris are sampled on every run.
+	 * 
+	 * @param curi
+	 *            the curi
+	 * 
+	 * @return true, if the content should be written
+	 */
+	protected boolean isContentSampled(CrawlURI curi) {
+		double rate = hbaseParameters.getContentSampleRate();
+		if (rate >= 1) {
+			return true;
+		}
+		String key = (hbaseParameters.getContentSampling() == ContentSampling.HOST) ? getHost(curi) : curi.toString();
+		return getSampleFraction(key) < rate;
+	}
+
+	/**
+	 * Gets the host of a uri, for sampling and quotas by host.
+	 * 
+	 * @param curi
+	 *            the curi
+	 * 
+	 * @return the host, or the uri itself if it has none
+	 */
+	protected String getHost(CrawlURI curi) {
+		try {
+			String host = curi.getUURI().getReferencedHost();
+			if (host != null) {
+				return host;
+			}
+		} catch (URIException e) {
+			log.warn("No host for " + curi + ", using the uri", e);
+		}
+		return curi.toString();
+	}
+
+	/**
+	 * Gets the write quotas of the pool's hosts.
+	 * 
+	 * @return the host write quotas, or null if no host quota is set
+	 */
+	private HostWriteQuotas getHostWriteQuotas() {
+		return (getPool() instanceof HBaseWriterPool) ? ((HBaseWriterPool) getPool()).getHostWriteQuotas() : null;
+	}
+
+	/**
+	 * Gets where a key falls in the sample, from a 64 bit FNV-1a hash of its
+	 * characters, which unlike most hash codes is the same on every JVM. The
+	 * hash is finished with the MurmurHash3 mix, since FNV alone leaves the
+	 * high bits of similar urls close together.
+	 * 
+	 * @param key
+	 *            the url or host
+	 * 
+	 * @return the sample fraction, from 0 inclusive to 1 exclusive
+	 */
+	static double getSampleFraction(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		// the top 53 bits, as a double in [0, 1)
+		return (hash >>> 11) * (1.0 / (1L << 53));
+	}
+
 	/**
 	 * Determine if the given uri exists as a rowkey in the configured hbase
-	 * table.
+	 * table. The lookup goes through the pool's read only clients, so it
+	 * doesn't take a writer away from the write path.
 	 *
 	 * @param curi the curi
 	 * @return true, if checks if is record new
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
 	private boolean isRecordNew(CrawlURI curi) throws IOException {
-		// get the writer from the pool
-		HBaseWriter hbaseWriter = (HBaseWriter) getPool().borrowFile();
-		// get the client from the writer
-		HTable hbaseTable = hbaseWriter.getClient();
+		HBaseWriterPool hbaseWriterPool = (HBaseWriterPool) getPool();
 		// Here we can generate the rowkey for this uri ...
 		String url = curi.toString();
 		String row = Keying.createKey(url);
 		try {
 			// and look it up to see if it already exists...
+			// only the first cell is needed to know the row exists, so don't
+			// ship the content back
 			Get rowToGet = new Get(Bytes.toBytes(row));
-			if (hbaseTable.get(rowToGet) != null && !hbaseTable.get(rowToGet).isEmpty()) {
+			rowToGet.setFilter(new FirstKeyOnlyFilter());
+			long start = System.nanoTime();
+			Result result = hbaseWriterPool.getLookupPool().get(rowToGet);
+			boolean exists = result != null && !result.isEmpty();
+			hbaseWriterPool.getMetrics().recordExistenceCheck(System.nanoTime() - start, exists);
+			if (exists) {
 				// if it exists, then its not new
 				if (log.isDebugEnabled()) {
 					log.debug("Not A NEW Record - Url: " + url + " has the existing rowkey: " + row + " and has cell data.");
@@ -748,17 +864,9 @@ public class HBaseWriterProcessor extends WriterPoolProcessor implements WARCWri
 				return false;
 			}
 		} catch (IOException e) {
+			hbaseWriterPool.getMetrics().recordFailure(e);
 			log.error("Failed to determine if record: " + row + " is a new record due to IOExecption.  Deciding the record is already existing for now.", e);
 			return false;
-		} finally {
-			// always return the client back to the pool no matter what
-			try {
-				getPool().returnFile(hbaseWriter);
-			} catch (IOException e) {
-				// and it its not, log as an error
-				log.error("Failed to add back writer to the pool after checking if a rowkey is new or existing , writerPoolMember: " + hbaseWriter, e);
-				return false;
-			}
 		}
 		// if were here then the row key must not exist, so its a new record
 		if (log.isDebugEnabled()) {
@@ -767,6 +875,32 @@ public class HBaseWriterProcessor extends WriterPoolProcessor implements WARCWri
 		return true;
 	}
 
+	/**
+	 * Delays the current toe thread in proportion to the backpressure of the
+	 * pool's flow controller, so fetching slows down smoothly while HBase is
+	 * struggling instead of every thread stalling in a put at once.
+	 */
+	protected void applyBackpressure() {
+		if (!(getPool() instanceof HBaseWriterPool)) {
+			return;
+		}
+		WriteFlowController flowController = ((HBaseWriterPool) getPool()).getFlowController();
+		if (flowController == null) {
+			return;
+		}
+		long delayMs = (long) (flowController.getBackpressure() * hbaseParameters.getMaxBackpressureDelayMs());
+		if (delayMs > 0) {
+			if (log.isDebugEnabled()) {
+				log.debug("Delaying write " + delayMs + "ms for HBase backpressure: " + flowController);
+			}
+			try {
+				Thread.sleep(delayMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
 	/**
 	 * Write to HBase.
 	 * 
@@ -783,23 +917,50 @@ public class HBaseWriterProcessor extends WriterPoolProcessor implements WARCWri
 	 *             Signals that an I/O exception has occurred.
 	 */
 	protected ProcessResult write(final CrawlURI curi, long recordLength, InputStream in) throws IOException {
+		boolean writeContent = !curi.getAnnotations().contains(ANNOTATION_CONTENT_UNSAMPLED);
 		// grab the writer from the pool
 		HBaseWriter hbaseWriter = (HBaseWriter) getPool().borrowFile();
 		// get the member position for logging Total Bytes Written
 		long writerPoolMemberPosition = hbaseWriter.getPosition();
 		try {
 			// write the crawled data to hbase
-			hbaseWriter.write(curi, getHostAddress(curi), curi.getRecorder().getRecordedOutput(), curi.getRecorder().getRecordedInput());
+			hbaseWriter.write(curi, getHostAddress(curi), curi.getRecorder().getRecordedOutput(), curi.getRecorder().getRecordedInput(), writeContent);
 		} finally {
 			// log total bytes written
 			setTotalBytesWritten(getTotalBytesWritten() + (hbaseWriter.getPosition() - writerPoolMemberPosition));
 			// return the hbaseWriter client back to the pool.
 			getPool().returnFile(hbaseWriter);
 		}
+		// count the recorded bytes against the host's quota, the response only
+		// when it was written
+		HostWriteQuotas quotas = getHostWriteQuotas();
+		if (quotas != null) {
+			quotas.record(getHost(curi), writeContent ? recordLength : curi.getRecorder().getRecordedOutput().getSize());
+		}
 		// to alert heritrix what action to take next in the crawl
 		return checkBytesWritten();
 	}
 
+	/**
+	 * Closes the writers of toe threads that have died and flushes the
+	 * buffered puts of the others before checkpointing, as writers kept by a
+	 * thread or stripe are never returned to the pool.
+	 * 
+	 * @param checkpointInProgress
+	 *            the checkpoint in progress
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public void doCheckpoint(Checkpoint checkpointInProgress) throws IOException {
+		if (getPool() instanceof HBaseWriterPool) {
+			((HBaseWriterPool) getPool()).reclaimDeadThreadWriters();
+			((HBaseWriterPool) getPool()).flushWriters();
+		}
+		super.doCheckpoint(checkpointInProgress);
+	}
+
 	/**
 	 * Gets the default store paths.
 	 *
@@ -505,9 +505,39 @@ That's all there is to it!
  */
 package org.archive.io.hbase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Keying;
+import org.archive.io.RecordingInputStream;
+import org.archive.io.RecordingOutputStream;
+import org.archive.io.ReplayInputStream;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -560,4 +590,1366 @@ public class TestHBaseWriter {
 		}
 
 	}
+
+	/**
+	 * Test that a row written without its response doesn't get the payload
+	 * digest either, so a later revisit check can't match it and leave the
+	 * content unwritten.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testNoDigestWithoutContent() throws IOException {
+		HBaseParameters parameters = new HBaseParameters();
+		byte[] curiFamily = Bytes.toBytes(parameters.getCuriColumnFamily());
+		byte[] digestColumn = Bytes.toBytes(parameters.getPayloadDigestColumnName());
+
+		CapturingWriter writer = new CapturingWriter(parameters);
+		writer.write(newCrawlURI("http://www.example.com/"), "127.0.0.1", newRequest(""), newResponse("HTTP/1.0 200 OK\r\n\r\n", "body"), false);
+		Assert.assertEquals(writer.routed.size(), 1);
+		Assert.assertFalse(writer.routed.get(0).has(curiFamily, digestColumn));
+		Assert.assertFalse(writer.routed.get(0).has(Bytes.toBytes(parameters.getContentColumnFamily()), Bytes.toBytes(parameters.getContentColumnName())));
+
+		writer.write(newCrawlURI("http://www.example.com/"), "127.0.0.1", newRequest(""), newResponse("HTTP/1.0 200 OK\r\n\r\n", "body"), true);
+		Assert.assertEquals(writer.routed.size(), 2);
+		Assert.assertTrue(writer.routed.get(1).has(curiFamily, digestColumn));
+
+		// nor in the compact metadata record
+		parameters.setCompactMetadata(true);
+		writer = new CapturingWriter(parameters);
+		writer.write(newCrawlURI("http://www.example.com/"), "127.0.0.1", newRequest(""), newResponse("HTTP/1.0 200 OK\r\n\r\n", "body"), false);
+		KeyValue metadata = getCell(writer.routed.get(0), curiFamily, Bytes.toBytes(parameters.getMetadataColumnName()));
+		Assert.assertNull(MetadataRecord.fromBytes(metadata.getValue()).getPayloadDigest());
+	}
+
+	/**
+	 * Test that the fetch status, content type and content length are only
+	 * written when asked for, as typed cells or in the compact metadata
+	 * record.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testFetchMetadata() throws IOException {
+		HBaseParameters parameters = new HBaseParameters();
+		byte[] curiFamily = Bytes.toBytes(parameters.getCuriColumnFamily());
+		byte[] fetchStatusColumn = Bytes.toBytes(parameters.getFetchStatusColumnName());
+		byte[] contentTypeColumn = Bytes.toBytes(parameters.getContentTypeColumnName());
+		byte[] contentLengthColumn = Bytes.toBytes(parameters.getContentLengthColumnName());
+		CrawlURI curi = newCrawlURI("http://www.example.com/");
+		curi.setFetchStatus(200);
+		curi.setContentType("text/html");
+
+		// off by default, so existing tables don't grow new cells
+		Assert.assertFalse(parameters.isWriteFetchMetadata());
+		CapturingWriter writer = new CapturingWriter(parameters);
+		writer.write(curi, "127.0.0.1", newRequest(""), newResponse("HTTP/1.0 200 OK\r\n\r\n", "body"));
+		Assert.assertFalse(writer.routed.get(0).has(curiFamily, fetchStatusColumn));
+		Assert.assertFalse(writer.routed.get(0).has(curiFamily, contentTypeColumn));
+		Assert.assertFalse(writer.routed.get(0).has(curiFamily, contentLengthColumn));
+
+		parameters.setWriteFetchMetadata(true);
+		writer = new CapturingWriter(parameters);
+		writer.write(curi, "127.0.0.1", newRequest(""), newResponse("HTTP/1.0 200 OK\r\n\r\n", "body"));
+		Put put = writer.routed.get(0);
+		Assert.assertEquals(Bytes.toInt(getCell(put, curiFamily, fetchStatusColumn).getValue()), 200);
+		Assert.assertEquals(Bytes.toString(getCell(put, curiFamily, contentTypeColumn).getValue()), "text/html");
+		Assert.assertEquals(Bytes.toLong(getCell(put, curiFamily, contentLengthColumn).getValue()), curi.getContentLength());
+		// no http method, so no response headers
+		for (KeyValue cell : put.getFamilyMap().get(curiFamily)) {
+			Assert.assertFalse(Bytes.toString(cell.getQualifier()).startsWith(parameters.getResponseHeaderColumnPrefix()));
+		}
+
+		parameters.setCompactMetadata(true);
+		writer = new CapturingWriter(parameters);
+		writer.write(curi, "127.0.0.1", newRequest(""), newResponse("HTTP/1.0 200 OK\r\n\r\n", "body"));
+		MetadataRecord record = MetadataRecord.fromBytes(getCell(writer.routed.get(0), curiFamily, Bytes.toBytes(parameters.getMetadataColumnName())).getValue());
+		Assert.assertTrue(record.hasFetchMetadata());
+		Assert.assertEquals(record.getFetchStatus(), 200);
+		Assert.assertEquals(record.getContentType(), "text/html");
+		Assert.assertFalse(writer.routed.get(0).has(curiFamily, fetchStatusColumn));
+	}
+
+	/**
+	 * Test that content whose digest matches the stored one is written as a
+	 * revisit cell only, and that the stored digest is read from HBase once
+	 * per row.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testRevisitUnchangedContent() throws IOException {
+		HBaseParameters parameters = new HBaseParameters();
+		parameters.setOnlyWriteChangedContent(true);
+		byte[] contentFamily = Bytes.toBytes(parameters.getContentColumnFamily());
+		byte[] curiFamily = Bytes.toBytes(parameters.getCuriColumnFamily());
+		byte[] digestColumn = Bytes.toBytes(parameters.getPayloadDigestColumnName());
+		byte[] revisitColumn = Bytes.toBytes(parameters.getRevisitColumnName());
+		CrawlURI curi = newCrawlURI("http://www.example.com/");
+		byte[] digest = Bytes.toBytes(curi.getContentDigestSchemeString());
+
+		// nothing stored yet, so the content is written
+		LookupWriter writer = new LookupWriter(parameters);
+		writer.write(curi, "127.0.0.1", newRequest(""), newResponse("HTTP/1.0 200 OK\r\n\r\n", "body"));
+		Assert.assertEquals(writer.lookups, 1);
+		Assert.assertTrue(writer.routed.get(0).has(contentFamily, Bytes.toBytes(parameters.getContentColumnName())));
+		Assert.assertFalse(writer.routed.get(0).has(curiFamily, revisitColumn));
+
+		// the digest just written is cached, so the refetch is a revisit
+		writer.write(curi, "127.0.0.1", newRequest(""), newResponse("HTTP/1.0 200 OK\r\n\r\n", "body"));
+		Assert.assertEquals(writer.lookups, 1);
+		Put revisitPut = writer.routed.get(1);
+		Assert.assertTrue(revisitPut.has(curiFamily, revisitColumn));
+		Assert.assertFalse(revisitPut.getFamilyMap().containsKey(contentFamily));
+		Assert.assertFalse(revisitPut.has(curiFamily, digestColumn));
+
+		// a digest stored by an earlier crawl is read once
+		writer = new LookupWriter(parameters);
+		writer.stored = new KeyValue(Bytes.toBytes("row"), curiFamily, digestColumn, digest);
+		Assert.assertTrue(writer.isContentUnchanged("row", digest));
+		Assert.assertFalse(writer.isContentUnchanged("row", Bytes.toBytes("sha1:OTHER")));
+		Assert.assertEquals(writer.lookups, 1);
+
+		// a row without a digest is cached as such
+		writer.stored = null;
+		Assert.assertFalse(writer.isContentUnchanged("other", digest));
+		Assert.assertFalse(writer.isContentUnchanged("other", digest));
+		Assert.assertEquals(writer.lookups, 2);
+	}
+
+	/**
+	 * Test that the revisit check reads the digest out of the compact
+	 * metadata record.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testRevisitCompactMetadata() throws IOException {
+		HBaseParameters parameters = new HBaseParameters();
+		parameters.setOnlyWriteChangedContent(true);
+		parameters.setCompactMetadata(true);
+		byte[] curiFamily = Bytes.toBytes(parameters.getCuriColumnFamily());
+		CrawlURI curi = newCrawlURI("http://www.example.com/");
+		byte[] digest = Bytes.toBytes(curi.getContentDigestSchemeString());
+
+		MetadataRecord record = new MetadataRecord();
+		record.setUrl(curi.toString());
+		record.setPayloadDigest(digest);
+		LookupWriter writer = new LookupWriter(parameters);
+		writer.stored = new KeyValue(Bytes.toBytes("row"), curiFamily, Bytes.toBytes(parameters.getMetadataColumnName()), record.toBytes());
+		writer.write(curi, "127.0.0.1", newRequest(""), newResponse("HTTP/1.0 200 OK\r\n\r\n", "body"));
+		Assert.assertEquals(writer.lookups, 1);
+		Assert.assertEquals(writer.routed.size(), 1);
+		Assert.assertTrue(writer.routed.get(0).has(curiFamily, Bytes.toBytes(parameters.getRevisitColumnName())));
+		Assert.assertFalse(writer.routed.get(0).getFamilyMap().containsKey(Bytes.toBytes(parameters.getContentColumnFamily())));
+
+		// a record without a digest never matches
+		writer = new LookupWriter(parameters);
+		writer.stored = new KeyValue(Bytes.toBytes("row"), curiFamily, Bytes.toBytes(parameters.getMetadataColumnName()), new MetadataRecord().toBytes());
+		Assert.assertFalse(writer.isContentUnchanged("row", digest));
+	}
+
+	/**
+	 * Test that the digest of content that wasn't written is forgotten, so
+	 * the next fetch of the url writes the content instead of a revisit.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testRevisitDigestForgottenWhenNotWritten() throws IOException {
+		HBaseParameters parameters = new HBaseParameters();
+		parameters.setOnlyWriteChangedContent(true);
+		final boolean[] failing = { true };
+		LookupWriter writer = new LookupWriter(parameters) {
+			@Override
+			protected void routePut(final HTable table, final Put put) throws IOException {
+				if (failing[0]) {
+					throw new DoNotRetryIOException("rejected");
+				}
+				super.routePut(table, put);
+			}
+		};
+		CrawlURI curi = newCrawlURI("http://www.example.com/");
+		byte[] digest = Bytes.toBytes(curi.getContentDigestSchemeString());
+		String rowKey = Keying.createKey(curi.toString());
+		try {
+			writer.write(curi, "127.0.0.1", newRequest(""), newResponse("HTTP/1.0 200 OK\r\n\r\n", "body"));
+			Assert.fail("rejected put didn't fail");
+		} catch (DoNotRetryIOException e) {
+			Assert.assertNotNull(e);
+		}
+		Assert.assertFalse(writer.getRevisitDigestCache().contains(rowKey));
+
+		// written, then dropped by a later replay
+		failing[0] = false;
+		writer.write(curi, "127.0.0.1", newRequest(""), newResponse("HTTP/1.0 200 OK\r\n\r\n", "body"));
+		Assert.assertTrue(writer.isContentUnchanged(rowKey, digest));
+		writer.dropPut(table, writer.routed.get(0), new DoNotRetryIOException("rejected"));
+		Assert.assertFalse(writer.getRevisitDigestCache().contains(rowKey));
+		Assert.assertEquals(writer.getMetrics().getFailureCount(), 1);
+	}
+
+	/**
+	 * Test that a put let through to probe an open circuit gives the probe
+	 * back when it ends without saying anything about the region, so the
+	 * circuit isn't stuck open.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testRejectedPutReleasesProbe() throws IOException {
+		final IOException[] failure = new IOException[1];
+		final RuntimeException[] runtimeFailure = new RuntimeException[1];
+		CapturingWriter writer = new CapturingWriter(new HBaseParameters()) {
+			@Override
+			protected void put(final HTable table, final Put put) throws IOException {
+				if (runtimeFailure[0] != null) {
+					throw runtimeFailure[0];
+				}
+				throw failure[0];
+			}
+		};
+		RegionCircuitBreaker circuitBreaker = new RegionCircuitBreaker(1, 0);
+		writer.setCircuitBreaker(circuitBreaker);
+		circuitBreaker.recordFailure("region");
+
+		failure[0] = new DoNotRetryIOException("rejected");
+		try {
+			writer.putWithRetry(null, new Put(Bytes.toBytes("row")));
+			Assert.fail("rejected put didn't fail");
+		} catch (DoNotRetryIOException e) {
+			Assert.assertNotNull(e);
+		}
+		Assert.assertTrue(circuitBreaker.allowRequest("region"));
+		circuitBreaker.releaseProbe("region");
+
+		runtimeFailure[0] = new IllegalStateException("broken");
+		try {
+			writer.putWithRetry(null, new Put(Bytes.toBytes("row")));
+			Assert.fail("broken put didn't fail");
+		} catch (IllegalStateException e) {
+			Assert.assertNotNull(e);
+		}
+		Assert.assertTrue(circuitBreaker.allowRequest("region"));
+
+		// failures are counted by whoever gives up on the put, not per attempt
+		Assert.assertEquals(writer.getMetrics().getFailureCount(), 0);
+	}
+
+	/**
+	 * Test that with a spool, a put out of retries and a put to a region
+	 * whose circuit is open are spooled instead of queued or dropped.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testFailedPutSpooled() throws IOException {
+		HBaseParameters parameters = new HBaseParameters();
+		parameters.setWriteRetries(1);
+		parameters.setRetryBaseDelayMs(1);
+		final int[] attempts = new int[1];
+		CapturingWriter writer = new CapturingWriter(parameters) {
+			@Override
+			protected void put(final HTable table, final Put put) throws IOException {
+				attempts[0]++;
+				throw new IOException("region server down");
+			}
+
+			@Override
+			protected String getTableName(final HTable table) {
+				return "test";
+			}
+		};
+		writer.setCircuitBreaker(new RegionCircuitBreaker(2, 60000));
+		File directory = TestLocalSpool.createTempDirectory();
+		LocalSpool spool = new LocalSpool(directory, 4096);
+		writer.setSpool(spool);
+		try {
+			writer.putWithRetry(null, new Put(Bytes.toBytes("retried")));
+			Assert.assertEquals(attempts[0], 2);
+
+			// two failures opened the circuit, so the next put isn't tried
+			writer.putWithRetry(null, new Put(Bytes.toBytes("blocked")));
+			Assert.assertEquals(attempts[0], 2);
+
+			Assert.assertEquals(writer.getFailedPutQueue().size(), 0);
+			Assert.assertEquals(writer.getMetrics().getFailureCount(), 0);
+			final List<String> spooled = new ArrayList<String>();
+			File segment = spool.nextSegment();
+			spool.replay(segment, new LocalSpool.Handler() {
+				@Override
+				public void replay(final String tableName, final Put put) {
+					Assert.assertEquals(tableName, "test");
+					spooled.add(Bytes.toString(put.getRow()));
+				}
+
+				@Override
+				public void flush() {
+				}
+			});
+			Assert.assertEquals(spooled.size(), 2);
+			Assert.assertEquals(spooled.get(0), "retried");
+			Assert.assertEquals(spooled.get(1), "blocked");
+			spool.delete(segment);
+		} finally {
+			spool.close();
+			directory.delete();
+		}
+	}
+
+	/**
+	 * Test that a failed put that can't go back on the queue when its replay
+	 * is put off is dropped and counted, not lost silently.
+	 */
+	@Test()
+	public void testReplayRequeueOverflow() {
+		final FailedPutQueue queue = new FailedPutQueue(1);
+		CapturingWriter writer = new CapturingWriter(new HBaseParameters()) {
+			@Override
+			protected HTable getTable(final String tableName) {
+				// another writer fills the queue meanwhile
+				queue.offer(new FailedPutQueue.FailedPut(tableName, new Put(Bytes.toBytes("other")), "region"));
+				return null;
+			}
+		};
+		writer.setFailedPutQueue(queue);
+		queue.offer(new FailedPutQueue.FailedPut("other-table", new Put(Bytes.toBytes("row")), "region"));
+
+		writer.replayFailedPuts(1);
+		Assert.assertEquals(queue.size(), 1);
+		Assert.assertEquals(Bytes.toString(queue.poll().getPut().getRow()), "other");
+		Assert.assertEquals(writer.getMetrics().getFailureCount(), 1);
+	}
+
+	/**
+	 * Test that routed puts wait in their region's group until it is flushed,
+	 * and are then written in one batch.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testFlushGroup() throws IOException {
+		BatchingWriter writer = new BatchingWriter(newBatchingParameters(60000));
+		writer.routePut(null, new Put(Bytes.toBytes("row1")));
+		writer.routePut(null, new Put(Bytes.toBytes("row2")));
+		Assert.assertTrue(writer.batches.isEmpty());
+		Assert.assertEquals(writer.getBatcher().getBufferedPuts(), 2);
+
+		writer.flushBatches();
+		Assert.assertEquals(writer.batches.size(), 1);
+		Assert.assertEquals(writer.batches.get(0).size(), 2);
+		Assert.assertTrue(writer.written.isEmpty());
+		Assert.assertEquals(writer.getBatcher().getBufferedPuts(), 0);
+		Assert.assertEquals(writer.relocations, 0);
+	}
+
+	/**
+	 * Test that the puts of a group whose batch failed are written one by one,
+	 * after the region's location is looked up again.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testFailedGroupFallsBackToSinglePuts() throws IOException {
+		BatchingWriter writer = new BatchingWriter(newBatchingParameters(60000));
+		writer.batchFailure = new IOException("region moved");
+		writer.routePut(null, new Put(Bytes.toBytes("row1")));
+		writer.routePut(null, new Put(Bytes.toBytes("row2")));
+
+		writer.flushBatches();
+		Assert.assertTrue(writer.batches.isEmpty());
+		Assert.assertEquals(writer.relocations, 1);
+		Assert.assertEquals(writer.written.size(), 2);
+		Assert.assertEquals(Bytes.toString(writer.written.get(0).getRow()), "row1");
+		Assert.assertEquals(Bytes.toString(writer.written.get(1).getRow()), "row2");
+		// the puts made it, nothing was given up on
+		Assert.assertEquals(writer.getMetrics().getFailureCount(), 0);
+		Assert.assertEquals(writer.getFailedPutQueue().size(), 0);
+	}
+
+	/**
+	 * Test that a group is flushed by a flush of due batches once its oldest
+	 * put has waited the max delay, without another put to the writer.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 * @throws InterruptedException
+	 *             if the test is interrupted
+	 */
+	@Test()
+	public void testFlushDueBatches() throws IOException, InterruptedException {
+		BatchingWriter writer = new BatchingWriter(newBatchingParameters(50));
+		writer.routePut(null, new Put(Bytes.toBytes("row")));
+
+		writer.flushDueBatches();
+		Assert.assertTrue(writer.batches.isEmpty());
+
+		Thread.sleep(60);
+		writer.flushDueBatches();
+		Assert.assertEquals(writer.batches.size(), 1);
+		Assert.assertEquals(writer.getBatcher().getBufferedPuts(), 0);
+	}
+
+	/**
+	 * Test that a put is large from the threshold up, and only when large puts
+	 * have permits to be written with.
+	 */
+	@Test()
+	public void testLargePutClassification() {
+		HBaseParameters parameters = new HBaseParameters();
+		parameters.setLargePutThresholdBytes(1024);
+		BatchingWriter writer = new BatchingWriter(parameters);
+		Put small = newPut("small", 16);
+		Put large = newPut("large", 4096);
+		Assert.assertFalse(writer.isLargePut(large));
+
+		writer.setLargePutPermits(new Semaphore(1));
+		Assert.assertFalse(writer.isLargePut(small));
+		Assert.assertTrue(writer.isLargePut(large));
+		// by serialized size, not the larger heap size
+		long serializedSize = HBaseWriter.getSerializedSize(large);
+		Assert.assertEquals(serializedSize, getCell(large, Bytes.toBytes("content"), Bytes.toBytes("raw_data")).getLength());
+		Assert.assertTrue(serializedSize < large.heapSize());
+		parameters.setLargePutThresholdBytes(serializedSize);
+		Assert.assertTrue(writer.isLargePut(large));
+		parameters.setLargePutThresholdBytes(serializedSize + 1);
+		Assert.assertFalse(writer.isLargePut(large));
+	}
+
+	/**
+	 * Test that a large put is written straight away through the large put
+	 * client, passing by the region batches and the write buffer, and gives
+	 * its permit back.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testLargePutBypassesBatcher() throws IOException {
+		HBaseParameters parameters = newBatchingParameters(60000);
+		parameters.setLargePutThresholdBytes(1024);
+		BatchingWriter writer = new BatchingWriter(parameters);
+		Semaphore permits = new Semaphore(1);
+		writer.setLargePutPermits(permits);
+
+		Put small = newPut("small", 16);
+		Put large = newPut("large", 4096);
+		writer.routePut(null, small);
+		writer.routePut(null, large);
+		Assert.assertEquals(writer.getBatcher().getBufferedPuts(), 1);
+		Assert.assertEquals(writer.written.size(), 1);
+		Assert.assertSame(writer.written.get(0), large);
+		Assert.assertEquals(writer.largePutClients.get(), 1);
+		Assert.assertEquals(permits.availablePermits(), 1);
+
+		// without region batching a small put goes to the table's client
+		writer = new BatchingWriter(new HBaseParameters());
+		writer.getHbaseOptions().setLargePutThresholdBytes(1024);
+		writer.setLargePutPermits(permits);
+		writer.routePut(null, small);
+		Assert.assertEquals(writer.largePutClients.get(), 0);
+		writer.routePut(null, large);
+		Assert.assertEquals(writer.largePutClients.get(), 1);
+		Assert.assertEquals(writer.written.size(), 2);
+	}
+
+	/**
+	 * Test that no more large puts are written at once than there are
+	 * permits, and that the others wait for one.
+	 * 
+	 * @throws Exception
+	 *             if the test fails
+	 */
+	@Test()
+	public void testLargePutPermits() throws Exception {
+		HBaseParameters parameters = new HBaseParameters();
+		parameters.setLargePutThresholdBytes(1024);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger writing = new AtomicInteger();
+		final AtomicInteger mostWriting = new AtomicInteger();
+		final BatchingWriter writer = new BatchingWriter(parameters) {
+			@Override
+			protected void put(final HTable table, final Put put) throws IOException {
+				int now = writing.incrementAndGet();
+				if (now > mostWriting.get()) {
+					mostWriting.set(now);
+				}
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new IOException("interrupted");
+				} finally {
+					writing.decrementAndGet();
+				}
+				super.put(table, put);
+			}
+		};
+		Semaphore permits = new Semaphore(1, true);
+		writer.setLargePutPermits(permits);
+
+		Thread[] threads = new Thread[2];
+		for (int i = 0; i < threads.length; i++) {
+			final Put large = newPut("large" + i, 4096);
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						writer.routePut(null, large);
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!(writing.get() == 1 && permits.hasQueuedThreads()) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(writing.get(), 1);
+		Assert.assertTrue(permits.hasQueuedThreads());
+
+		release.countDown();
+		for (Thread thread : threads) {
+			thread.join(5000);
+		}
+		Assert.assertEquals(mostWriting.get(), 1);
+		Assert.assertEquals(writer.written.size(), 2);
+		Assert.assertEquals(permits.availablePermits(), 1);
+	}
+
+	/**
+	 * Test that replayed puts take the path of new puts: a large one through
+	 * the large put client, a small one into its region's batch, and one to a
+	 * region whose circuit is open back on the queue.
+	 */
+	@Test()
+	public void testReplayRoutesPuts() {
+		HBaseParameters parameters = newBatchingParameters(60000);
+		parameters.setLargePutThresholdBytes(1024);
+		BatchingWriter writer = new BatchingWriter(parameters);
+		writer.setLargePutPermits(new Semaphore(1));
+		RegionCircuitBreaker circuitBreaker = new RegionCircuitBreaker(1, 60000);
+		circuitBreaker.recordFailure("open");
+		writer.setCircuitBreaker(circuitBreaker);
+
+		FailedPutQueue queue = writer.getFailedPutQueue();
+		Put large = newPut("large", 4096);
+		Put small = newPut("small", 16);
+		Put blocked = newPut("blocked", 16);
+		queue.offer(new FailedPutQueue.FailedPut("test", large, "region"));
+		queue.offer(new FailedPutQueue.FailedPut("test", small, "region"));
+		queue.offer(new FailedPutQueue.FailedPut("test", blocked, "open"));
+
+		writer.replayFailedPuts(3);
+		Assert.assertEquals(writer.written.size(), 1);
+		Assert.assertSame(writer.written.get(0), large);
+		Assert.assertEquals(writer.largePutClients.get(), 1);
+		Assert.assertEquals(writer.getBatcher().getBufferedPuts(), 1);
+		Assert.assertEquals(queue.size(), 1);
+		Assert.assertSame(queue.poll().getPut(), blocked);
+		Assert.assertEquals(writer.getMetrics().getFailureCount(), 0);
+	}
+
+	/**
+	 * Test that an existing table is only altered for the max versions that
+	 * are configured, and keeps those that aren't.
+	 */
+	@Test()
+	public void testConformTableMaxVersions() {
+		HBaseParameters parameters = new HBaseParameters();
+		CapturingWriter writer = new CapturingWriter(parameters);
+		HTableDescriptor existingTable = new HTableDescriptor(table);
+		HColumnDescriptor contentFamily = new HColumnDescriptor(parameters.getContentColumnFamily());
+		contentFamily.setMaxVersions(100);
+		existingTable.addFamily(contentFamily);
+		HColumnDescriptor curiFamily = new HColumnDescriptor(parameters.getCuriColumnFamily());
+		curiFamily.setMaxVersions(100);
+		existingTable.addFamily(curiFamily);
+
+		// nothing configured, nothing changed
+		Assert.assertFalse(writer.conformTable(existingTable, table, parameters.getContentColumnFamily(), parameters.getCuriColumnFamily()));
+		Assert.assertEquals(contentFamily.getMaxVersions(), 100);
+		Assert.assertEquals(curiFamily.getMaxVersions(), 100);
+
+		// only the configured family is changed
+		parameters.setCuriMaxVersions(10);
+		Assert.assertTrue(writer.conformTable(existingTable, table, parameters.getContentColumnFamily(), parameters.getCuriColumnFamily()));
+		Assert.assertEquals(contentFamily.getMaxVersions(), 100);
+		Assert.assertEquals(curiFamily.getMaxVersions(), 10);
+		Assert.assertFalse(writer.conformTable(existingTable, table, parameters.getContentColumnFamily(), parameters.getCuriColumnFamily()));
+
+		// a missing family is added with the configured max versions
+		HTableDescriptor curiOnlyTable = new HTableDescriptor(table);
+		curiOnlyTable.addFamily(new HColumnDescriptor(parameters.getCuriColumnFamily()));
+		parameters.setContentMaxVersions(1);
+		Assert.assertTrue(writer.conformTable(curiOnlyTable, table, parameters.getContentColumnFamily(), parameters.getCuriColumnFamily()));
+		Assert.assertEquals(curiOnlyTable.getFamily(Bytes.toBytes(parameters.getContentColumnFamily())).getMaxVersions(), 1);
+	}
+
+	/**
+	 * Test that deferred log flush is only turned on for ASYNC_WAL, and is
+	 * otherwise left as the admin set it.
+	 */
+	@Test()
+	public void testConformTableDeferredLogFlush() {
+		HBaseParameters parameters = new HBaseParameters();
+		CapturingWriter writer = new CapturingWriter(parameters);
+		HTableDescriptor existingTable = new HTableDescriptor(table);
+		existingTable.addFamily(new HColumnDescriptor(parameters.getContentColumnFamily()));
+		existingTable.addFamily(new HColumnDescriptor(parameters.getCuriColumnFamily()));
+
+		// SYNC_WAL leaves a deferred log flush set by the admin
+		existingTable.setDeferredLogFlush(true);
+		Assert.assertFalse(writer.conformTable(existingTable, table, parameters.getContentColumnFamily(), parameters.getCuriColumnFamily()));
+		Assert.assertTrue(existingTable.isDeferredLogFlush());
+
+		// ASYNC_WAL on one family only isn't enough
+		existingTable.setDeferredLogFlush(false);
+		parameters.setContentDurability(WriteDurability.ASYNC_WAL);
+		Assert.assertFalse(writer.conformTable(existingTable, table, parameters.getContentColumnFamily(), parameters.getCuriColumnFamily()));
+		Assert.assertFalse(existingTable.isDeferredLogFlush());
+
+		parameters.setCuriDurability(WriteDurability.ASYNC_WAL);
+		Assert.assertTrue(writer.conformTable(existingTable, table, parameters.getContentColumnFamily(), parameters.getCuriColumnFamily()));
+		Assert.assertTrue(existingTable.isDeferredLogFlush());
+		Assert.assertFalse(writer.conformTable(existingTable, table, parameters.getContentColumnFamily(), parameters.getCuriColumnFamily()));
+	}
+
+	/**
+	 * Test that the content of a row goes in a put of its own when its write
+	 * ahead log setting differs from the rest of the row.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testDurabilitySplit() throws IOException {
+		HBaseParameters parameters = new HBaseParameters();
+		byte[] contentFamily = Bytes.toBytes(parameters.getContentColumnFamily());
+		byte[] curiFamily = Bytes.toBytes(parameters.getCuriColumnFamily());
+
+		// the same durability keeps the row in one put
+		CapturingWriter writer = new CapturingWriter(parameters);
+		writer.writePut(newRow(parameters, 42L));
+		Assert.assertEquals(writer.routed.size(), 1);
+		Assert.assertTrue(writer.routed.get(0).getWriteToWAL());
+		Assert.assertEquals(writer.routed.get(0).numFamilies(), 2);
+
+		// ASYNC_WAL still writes the log, so it doesn't split either
+		parameters.setContentDurability(WriteDurability.ASYNC_WAL);
+		writer = new CapturingWriter(parameters);
+		writer.writePut(newRow(parameters, 42L));
+		Assert.assertEquals(writer.routed.size(), 1);
+
+		parameters.setContentDurability(WriteDurability.SKIP_WAL);
+		writer = new CapturingWriter(parameters);
+		writer.writePut(newRow(parameters, 42L));
+		Assert.assertEquals(writer.routed.size(), 2);
+		Put contentPut = writer.routed.get(0);
+		Put curiPut = writer.routed.get(1);
+		Assert.assertFalse(contentPut.getWriteToWAL());
+		Assert.assertTrue(contentPut.getFamilyMap().containsKey(contentFamily));
+		Assert.assertFalse(contentPut.getFamilyMap().containsKey(curiFamily));
+		Assert.assertTrue(curiPut.getWriteToWAL());
+		Assert.assertTrue(curiPut.getFamilyMap().containsKey(curiFamily));
+		Assert.assertFalse(curiPut.getFamilyMap().containsKey(contentFamily));
+		Assert.assertEquals(contentPut.getRow(), curiPut.getRow());
+		Assert.assertEquals(contentPut.getTimeStamp(), 42L);
+		Assert.assertEquals(curiPut.getTimeStamp(), 42L);
+	}
+
+	/**
+	 * Test that with a separate content table the content cells go to the
+	 * content client and the curi cells stay in the crawl table, and that
+	 * queued puts are replayed to the client of the table they were queued
+	 * for.
+	 * 
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test()
+	public void testSeparateContentTable() throws Exception {
+		HBaseParameters parameters = new HBaseParameters();
+		parameters.setHbaseTableName("crawl");
+		parameters.setContentTableName("content");
+		Assert.assertTrue(parameters.isSeparateContentTable());
+		byte[] contentFamily = Bytes.toBytes(parameters.getContentColumnFamily());
+		byte[] curiFamily = Bytes.toBytes(parameters.getCuriColumnFamily());
+		final HTable crawlTable = newTable();
+		final HTable contentTable = newTable();
+		CapturingWriter writer = new CapturingWriter(parameters, crawlTable, contentTable) {
+			@Override
+			protected String getTableName(final HTable table) {
+				return (table == crawlTable) ? "crawl" : "content";
+			}
+		};
+
+		writer.writePut(newRow(parameters, 42L));
+		Assert.assertEquals(writer.routed.size(), 2);
+		Assert.assertSame(writer.tables.get(0), contentTable);
+		Assert.assertTrue(writer.routed.get(0).getFamilyMap().containsKey(contentFamily));
+		Assert.assertFalse(writer.routed.get(0).getFamilyMap().containsKey(curiFamily));
+		Assert.assertSame(writer.tables.get(1), crawlTable);
+		Assert.assertTrue(writer.routed.get(1).getFamilyMap().containsKey(curiFamily));
+		Assert.assertFalse(writer.routed.get(1).getFamilyMap().containsKey(contentFamily));
+		// the durability is the same, so the wal flag is too
+		Assert.assertTrue(writer.routed.get(0).getWriteToWAL());
+		Assert.assertTrue(writer.routed.get(1).getWriteToWAL());
+
+		// a row without content only goes to the crawl table
+		Put curiOnly = newRow(parameters, 42L);
+		curiOnly.getFamilyMap().remove(contentFamily);
+		writer.writePut(curiOnly);
+		Assert.assertEquals(writer.routed.size(), 3);
+		Assert.assertSame(writer.tables.get(2), crawlTable);
+
+		Assert.assertSame(writer.getTable("crawl"), crawlTable);
+		Assert.assertSame(writer.getTable("content"), contentTable);
+		Assert.assertNull(writer.getTable("other"));
+
+		Put content = newPut("content", 16);
+		Put curi = newPut("curi", 16);
+		writer.getFailedPutQueue().offer(new FailedPutQueue.FailedPut("content", content, "region"));
+		writer.getFailedPutQueue().offer(new FailedPutQueue.FailedPut("crawl", curi, "region"));
+		writer.replayFailedPuts(2);
+		Assert.assertEquals(writer.routed.size(), 5);
+		Assert.assertSame(writer.routed.get(3), content);
+		Assert.assertSame(writer.tables.get(3), contentTable);
+		Assert.assertSame(writer.routed.get(4), curi);
+		Assert.assertSame(writer.tables.get(4), crawlTable);
+	}
+
+	/**
+	 * Test that with a separate content table the crawl table only gets the
+	 * curi column family and the content table only the content one.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testSeparateContentTableFamilies() throws IOException {
+		final HBaseParameters parameters = new HBaseParameters();
+		parameters.setHbaseTableName("crawl");
+		parameters.setContentTableName("content");
+		final List<String> tableNames = new ArrayList<String>();
+		final List<List<String>> tableFamilies = new ArrayList<List<String>>();
+		CapturingWriter writer = new CapturingWriter(parameters) {
+			@Override
+			protected void initializeTable(final Configuration hbaseConfiguration, final String hbaseTableName, final String... columnFamilies) {
+				tableNames.add(hbaseTableName);
+				tableFamilies.add(Arrays.asList(columnFamilies));
+			}
+		};
+		writer.initializeCrawlTable(null, "crawl");
+		writer.initializeContentTable(null, "content");
+		Assert.assertEquals(tableNames, Arrays.asList("crawl", "content"));
+		Assert.assertEquals(tableFamilies.get(0), Collections.singletonList(parameters.getCuriColumnFamily()));
+		Assert.assertEquals(tableFamilies.get(1), Collections.singletonList(parameters.getContentColumnFamily()));
+
+		// without one, both families go in the crawl table
+		parameters.setContentTableName(null);
+		writer.initializeCrawlTable(null, "crawl");
+		Assert.assertEquals(tableFamilies.get(2), Arrays.asList(parameters.getContentColumnFamily(), parameters.getCuriColumnFamily()));
+	}
+
+	/**
+	 * Test that the CRAWL_EPOCH policy stamps every cell with the configured
+	 * crawl epoch, and that a writer won't start without one rather than
+	 * take one from the clock.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testCrawlEpoch() throws IOException {
+		HBaseParameters parameters = new HBaseParameters();
+		parameters.setTimestampPolicy(TimestampPolicy.CRAWL_EPOCH);
+		try {
+			new CapturingWriter(parameters);
+			Assert.fail("a crawl epoch is required");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		parameters.setCrawlEpoch(1234567890000L);
+		CapturingWriter writer = new CapturingWriter(parameters);
+		writer.write(newCrawlURI("http://www.example.com/"), "127.0.0.1", newRequest(""), newResponse("HTTP/1.0 200 OK\r\n\r\n", "body"));
+		Assert.assertEquals(writer.routed.get(0).getTimeStamp(), 1234567890000L);
+		for (List<KeyValue> cells : writer.routed.get(0).getFamilyMap().values()) {
+			for (KeyValue cell : cells) {
+				Assert.assertEquals(cell.getTimestamp(), 1234567890000L);
+			}
+		}
+		Assert.assertEquals(parameters.getCrawlEpoch(), 1234567890000L);
+	}
+
+	/**
+	 * Test that a request template whose row can't be written isn't used: the
+	 * request is kept whole, and a request after circuitBreakerOpenMs tries
+	 * the template again.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testRequestTemplateWriteFailure() throws IOException {
+		HBaseParameters parameters = new HBaseParameters();
+		parameters.setRequestCapture(RequestCapture.TEMPLATE);
+		parameters.setCircuitBreakerOpenMs(0);
+		byte[] curiFamily = Bytes.toBytes(parameters.getCuriColumnFamily());
+		byte[] requestColumn = Bytes.toBytes(parameters.getRequestColumnName());
+		final List<Put> templates = new ArrayList<Put>();
+		final boolean[] failing = { true };
+		CapturingWriter writer = new CapturingWriter(parameters) {
+			@Override
+			protected void writeRequestTemplate(final Put templatePut) throws IOException {
+				if (failing[0]) {
+					throw new IOException("region server down");
+				}
+				templates.add(templatePut);
+			}
+		};
+		byte[] first = Bytes.toBytes("GET / HTTP/1.0\r\nHost: www.example.com\r\n\r\n");
+		Put put = new Put(Bytes.toBytes("row"));
+		writer.addRequest(put, first);
+		Assert.assertFalse(writer.getRequestTemplateCodec().hasTemplate());
+		Assert.assertEquals(getCell(put, curiFamily, requestColumn).getValue(), first);
+
+		failing[0] = false;
+		byte[] second = Bytes.toBytes("GET /other HTTP/1.0\r\nHost: www.example.com\r\n\r\n");
+		put = new Put(Bytes.toBytes("row"));
+		writer.addRequest(put, second);
+		Assert.assertEquals(templates.size(), 1);
+		Assert.assertEquals(Bytes.toString(templates.get(0).getRow()), RequestTemplateCodec.getTemplateRow(second));
+		byte[] encoded = getCell(put, curiFamily, requestColumn).getValue();
+		Assert.assertEquals(RequestTemplateCodec.decode(encoded, getCell(templates.get(0), curiFamily, requestColumn).getValue()), second);
+
+		// the template is written once
+		writer.addRequest(new Put(Bytes.toBytes("row")), first);
+		Assert.assertEquals(templates.size(), 1);
+	}
+
+	/**
+	 * Test that after a failed template write no request tries again until
+	 * circuitBreakerOpenMs has passed, and that while one writer writes the
+	 * template row the others keep their requests whole instead of waiting.
+	 * 
+	 * @throws Exception
+	 *             the exception
+	 */
+	@Test()
+	public void testRequestTemplateAttempts() throws Exception {
+		HBaseParameters parameters = new HBaseParameters();
+		parameters.setRequestCapture(RequestCapture.TEMPLATE);
+		parameters.setCircuitBreakerOpenMs(60000);
+		byte[] curiFamily = Bytes.toBytes(parameters.getCuriColumnFamily());
+		byte[] requestColumn = Bytes.toBytes(parameters.getRequestColumnName());
+		final byte[] request = Bytes.toBytes("GET / HTTP/1.0\r\nHost: www.example.com\r\n\r\n");
+		final AtomicInteger attempts = new AtomicInteger();
+		CapturingWriter writer = new CapturingWriter(parameters) {
+			@Override
+			protected void writeRequestTemplate(final Put templatePut) throws IOException {
+				attempts.incrementAndGet();
+				throw new IOException("region server down");
+			}
+		};
+		for (int i = 0; i < 3; i++) {
+			Put put = new Put(Bytes.toBytes("row"));
+			writer.addRequest(put, request);
+			Assert.assertEquals(getCell(put, curiFamily, requestColumn).getValue(), request);
+		}
+		Assert.assertEquals(attempts.get(), 1);
+
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch written = new CountDownLatch(1);
+		final CapturingWriter blockedWriter = new CapturingWriter(parameters) {
+			@Override
+			protected void writeRequestTemplate(final Put templatePut) throws IOException {
+				writing.countDown();
+				try {
+					written.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e.toString());
+				}
+			}
+		};
+		Thread templateWriter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					blockedWriter.addRequest(new Put(Bytes.toBytes("row")), request);
+				} catch (IOException e) {
+					// the test fails on the missing template
+				}
+			}
+		};
+		templateWriter.start();
+		writing.await();
+		// a writer sharing the codec doesn't wait on the template row
+		CapturingWriter otherWriter = new CapturingWriter(parameters);
+		otherWriter.setRequestTemplateCodec(blockedWriter.getRequestTemplateCodec());
+		Put put = new Put(Bytes.toBytes("row"));
+		otherWriter.addRequest(put, request);
+		Assert.assertEquals(getCell(put, curiFamily, requestColumn).getValue(), request);
+		written.countDown();
+		templateWriter.join();
+		Assert.assertTrue(blockedWriter.getRequestTemplateCodec().hasTemplate());
+		put = new Put(Bytes.toBytes("row"));
+		otherWriter.addRequest(put, request);
+		Assert.assertTrue(RequestTemplateCodec.isEncoded(getCell(put, curiFamily, requestColumn).getValue()));
+	}
+
+	/**
+	 * Test that both content processing hooks see the body captured for the
+	 * content cell, the stream hook positioned at the body start, and that the
+	 * Recorder is replayed only once.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testContentHooksReplayCapturedBody() throws IOException {
+		final String headers = "HTTP/1.0 200 OK\r\nContent-Type: text/plain\r\n\r\n";
+		final String body = "the body of the response";
+		final List<byte[]> bufferBodies = new ArrayList<byte[]>();
+		final List<byte[]> streamBodies = new ArrayList<byte[]>();
+		final List<Integer> streamSizes = new ArrayList<Integer>();
+		CapturingWriter writer = new CapturingWriter(new HBaseParameters()) {
+			@Override
+			protected void processContent(final Put put, final ByteBuffer responseBody) throws IOException {
+				byte[] bytes = new byte[responseBody.remaining()];
+				responseBody.get(bytes);
+				bufferBodies.add(bytes);
+			}
+
+			@Override
+			protected void processContent(final Put put, final ReplayInputStream replayInputStream, final int streamSize) throws IOException {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				for (int b = replayInputStream.read(); b >= 0; b = replayInputStream.read()) {
+					bytes.write(b);
+				}
+				streamBodies.add(bytes.toByteArray());
+				streamSizes.add(streamSize);
+			}
+		};
+		final AtomicInteger replays = new AtomicInteger();
+		RecordingInputStream response = record(new RecordingInputStream(16384, newBackingFile("response")) {
+			@Override
+			public ReplayInputStream getReplayInputStream() throws IOException {
+				replays.incrementAndGet();
+				return super.getReplayInputStream();
+			}
+		}, headers, body);
+		writer.write(newCrawlURI("http://www.example.com/"), "127.0.0.1", newRequest(""), response);
+
+		Assert.assertEquals(replays.get(), 1);
+		Assert.assertEquals(bufferBodies.size(), 1);
+		Assert.assertEquals(Bytes.toString(bufferBodies.get(0)), body);
+		Assert.assertEquals(streamBodies.size(), 1);
+		Assert.assertEquals(Bytes.toString(streamBodies.get(0)), body);
+		Assert.assertEquals(streamSizes.get(0).intValue(), headers.length() + body.length());
+	}
+
+	/**
+	 * Creates a table client that isn't connected to any cluster, for tests
+	 * that only need clients to tell apart.
+	 * 
+	 * @return the table client
+	 * 
+	 * @throws Exception
+	 *             if the client can't be allocated
+	 */
+	static HTable newTable() throws Exception {
+		Field field = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+		field.setAccessible(true);
+		Object unsafe = field.get(null);
+		return (HTable) unsafe.getClass().getMethod("allocateInstance", Class.class).invoke(unsafe, HTable.class);
+	}
+
+	/**
+	 * Creates the put of a row with a content and a curi cell.
+	 * 
+	 * @param parameters
+	 *            the parameters
+	 * @param timestamp
+	 *            the timestamp
+	 * 
+	 * @return the put
+	 */
+	static Put newRow(final HBaseParameters parameters, final long timestamp) {
+		Put put = new Put(Bytes.toBytes("com.example.www/"), timestamp);
+		put.add(Bytes.toBytes(parameters.getContentColumnFamily()), Bytes.toBytes(parameters.getContentColumnName()), Bytes.toBytes("content"));
+		put.add(Bytes.toBytes(parameters.getCuriColumnFamily()), Bytes.toBytes(parameters.getUrlColumnName()), Bytes.toBytes("http://www.example.com/"));
+		return put;
+	}
+
+	/**
+	 * Gets a cell of a put.
+	 * 
+	 * @param put
+	 *            the put
+	 * @param family
+	 *            the family
+	 * @param qualifier
+	 *            the qualifier
+	 * 
+	 * @return the cell, or null if the put doesn't have it
+	 */
+	static KeyValue getCell(final Put put, final byte[] family, final byte[] qualifier) {
+		List<KeyValue> cells = put.getFamilyMap().get(family);
+		if (cells != null) {
+			for (KeyValue cell : cells) {
+				if (Bytes.equals(cell.getQualifier(), qualifier)) {
+					return cell;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a crawl uri with a payload digest.
+	 * 
+	 * @param url
+	 *            the url
+	 * 
+	 * @return the crawl uri
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static CrawlURI newCrawlURI(final String url) throws IOException {
+		CrawlURI curi = new CrawlURI(UURIFactory.getInstance(url));
+		curi.setContentDigest("sha1", Bytes.toBytes(url));
+		return curi;
+	}
+
+	/**
+	 * Records a request the way the fetcher does.
+	 * 
+	 * @param request
+	 *            the request
+	 * 
+	 * @return the recording output stream
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static RecordingOutputStream newRequest(final String request) throws IOException {
+		RecordingOutputStream recordingOutputStream = new RecordingOutputStream(16384, newBackingFile("request"));
+		recordingOutputStream.open();
+		recordingOutputStream.write(Bytes.toBytes(request));
+		recordingOutputStream.close();
+		return recordingOutputStream;
+	}
+
+	/**
+	 * Records a response the way the fetcher does.
+	 * 
+	 * @param headers
+	 *            the response headers
+	 * @param body
+	 *            the response body
+	 * 
+	 * @return the recording input stream
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static RecordingInputStream newResponse(final String headers, final String body) throws IOException {
+		return record(new RecordingInputStream(16384, newBackingFile("response")), headers, body);
+	}
+
+	/**
+	 * Records a response into a recording input stream, marking the content
+	 * begin after the headers.
+	 * 
+	 * @param recordingInputStream
+	 *            the recording input stream
+	 * @param headers
+	 *            the response headers
+	 * @param body
+	 *            the response body
+	 * 
+	 * @return the recording input stream
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	static RecordingInputStream record(final RecordingInputStream recordingInputStream, final String headers, final String body) throws IOException {
+		recordingInputStream.open(new ByteArrayInputStream(Bytes.add(Bytes.toBytes(headers), Bytes.toBytes(body))));
+		byte[] buffer = new byte[headers.length() + body.length()];
+		int read = 0;
+		while (read < headers.length()) {
+			read += recordingInputStream.read(buffer, read, headers.length() - read);
+		}
+		recordingInputStream.markContentBegin();
+		while (recordingInputStream.read(buffer) >= 0) {
+			// record the rest of the response
+		}
+		recordingInputStream.close();
+		return recordingInputStream;
+	}
+
+	/**
+	 * Creates parameters for region batching with batches too large to fill
+	 * in a test.
+	 * 
+	 * @param maxDelayMs
+	 *            the region batch max delay
+	 * 
+	 * @return the parameters
+	 */
+	static HBaseParameters newBatchingParameters(final long maxDelayMs) {
+		HBaseParameters parameters = new HBaseParameters();
+		parameters.setRegionBatchBytes(1024 * 1024);
+		parameters.setRegionBatchMaxDelayMs(maxDelayMs);
+		return parameters;
+	}
+
+	/**
+	 * Creates a put with a value of the given size.
+	 * 
+	 * @param row
+	 *            the row
+	 * @param valueBytes
+	 *            the value size
+	 * 
+	 * @return the put
+	 */
+	static Put newPut(final String row, final int valueBytes) {
+		Put put = new Put(Bytes.toBytes(row));
+		put.add(Bytes.toBytes("content"), Bytes.toBytes("raw_data"), new byte[valueBytes]);
+		return put;
+	}
+
+	/**
+	 * Gets a backing file name for a recording stream, deleted on exit.
+	 * 
+	 * @param prefix
+	 *            the prefix
+	 * 
+	 * @return the backing file name
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static String newBackingFile(final String prefix) throws IOException {
+		File backingFile = File.createTempFile(prefix, ".tmp");
+		backingFile.deleteOnExit();
+		return backingFile.getAbsolutePath();
+	}
+
+	/**
+	 * A capturing writer reading revisit checks from a stored cell instead of
+	 * HBase.
+	 */
+	static class LookupWriter extends CapturingWriter {
+
+		/** The stored cell, or null if the row has none. */
+		KeyValue stored;
+
+		/** The number of lookups. */
+		int lookups;
+
+		/**
+		 * Instantiates a new lookup writer.
+		 * 
+		 * @param parameters
+		 *            the parameters
+		 */
+		LookupWriter(final HBaseParameters parameters) {
+			super(parameters);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.archive.io.hbase.HBaseWriter#lookup(org.apache.hadoop.hbase.client.Get)
+		 */
+		@Override
+		protected Result lookup(final Get get) throws IOException {
+			lookups++;
+			return (stored != null) ? new Result(new KeyValue[] { stored }) : new Result(new KeyValue[0]);
+		}
+	}
+
+	/**
+	 * A writer without table clients, which batches the puts it routes by
+	 * region and keeps the batches and single puts it would have written.
+	 */
+	static class BatchingWriter extends HBaseWriter {
+
+		/** The region every row is in. */
+		private static final HRegionLocation LOCATION = new HRegionLocation(new HRegionInfo(new HTableDescriptor("test"), HConstants.EMPTY_START_ROW,
+				HConstants.EMPTY_END_ROW), null);
+
+		/** The written batches. */
+		final List<List<Put>> batches = Collections.synchronizedList(new ArrayList<List<Put>>());
+
+		/** The puts written one by one. */
+		final List<Put> written = Collections.synchronizedList(new ArrayList<Put>());
+
+		/** The failure of every batch, or null if batches succeed. */
+		IOException batchFailure;
+
+		/** The number of region relocations. */
+		int relocations;
+
+		/** Whether the writer was closed. */
+		volatile boolean closed;
+
+		/** The number of times a large put client was asked for. */
+		final AtomicInteger largePutClients = new AtomicInteger();
+
+		/**
+		 * Instantiates a new batching writer.
+		 * 
+		 * @param parameters
+		 *            the parameters
+		 */
+		BatchingWriter(final HBaseParameters parameters) {
+			super(new AtomicInteger(), null, parameters, null, null);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.archive.io.hbase.HBaseWriter#locateRegion(org.apache.hadoop.hbase.client.HTable, byte[])
+		 */
+		@Override
+		protected HRegionLocation locateRegion(final HTable table, final byte[] row) {
+			return LOCATION;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.archive.io.hbase.HBaseWriter#getRegionName(org.apache.hadoop.hbase.client.HTable, byte[])
+		 */
+		@Override
+		protected String getRegionName(final HTable table, final byte[] row) {
+			return LOCATION.getRegionInfo().getRegionNameAsString();
+		}
+
+		/* (non-Javadoc)
+		 * @see org.archive.io.hbase.HBaseWriter#getLargePutClient(org.apache.hadoop.hbase.client.HTable)
+		 */
+		@Override
+		protected HTable getLargePutClient(final HTable table) {
+			largePutClients.incrementAndGet();
+			return null;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.archive.io.hbase.HBaseWriter#getTable(java.lang.String)
+		 */
+		@Override
+		protected HTable getTable(final String tableName) {
+			return null;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.archive.io.hbase.HBaseWriter#isOwnTable(java.lang.String)
+		 */
+		@Override
+		protected boolean isOwnTable(final String tableName) {
+			return true;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.archive.io.hbase.HBaseWriter#relocateRegion(org.apache.hadoop.hbase.client.HTable, byte[])
+		 */
+		@Override
+		protected void relocateRegion(final HTable table, final byte[] row) {
+			relocations++;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.archive.io.hbase.HBaseWriter#putBatch(org.apache.hadoop.hbase.client.HTable, java.util.List)
+		 */
+		@Override
+		protected void putBatch(final HTable table, final List<Put> puts) throws IOException {
+			if (batchFailure != null) {
+				throw batchFailure;
+			}
+			batches.add(new ArrayList<Put>(puts));
+		}
+
+		/* (non-Javadoc)
+		 * @see org.archive.io.hbase.HBaseWriter#put(org.apache.hadoop.hbase.client.HTable, org.apache.hadoop.hbase.client.Put)
+		 */
+		@Override
+		protected void put(final HTable table, final Put put) throws IOException {
+			written.add(put);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.archive.io.hbase.HBaseWriter#close()
+		 */
+		@Override
+		public void close() throws IOException {
+			// there are no clients to close
+			closed = true;
+			flushBatches();
+		}
+	}
+
+	/**
+	 * A writer without table clients, which keeps the puts it routes instead
+	 * of writing them.
+	 */
+	static class CapturingWriter extends HBaseWriter {
+
+		/** The routed puts. */
+		final List<Put> routed = new ArrayList<Put>();
+
+		/** The table each put was routed to. */
+		final List<HTable> tables = new ArrayList<HTable>();
+
+		/**
+		 * Instantiates a new capturing writer.
+		 * 
+		 * @param parameters
+		 *            the parameters
+		 */
+		CapturingWriter(final HBaseParameters parameters) {
+			this(parameters, null, null);
+		}
+
+		/**
+		 * Instantiates a new capturing writer on the given table clients.
+		 * 
+		 * @param parameters
+		 *            the parameters
+		 * @param client
+		 *            the client
+		 * @param contentClient
+		 *            the content client
+		 */
+		CapturingWriter(final HBaseParameters parameters, final HTable client, final HTable contentClient) {
+			super(new AtomicInteger(), null, parameters, client, contentClient);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.archive.io.hbase.HBaseWriter#routePut(org.apache.hadoop.hbase.client.HTable, org.apache.hadoop.hbase.client.Put)
+		 */
+		@Override
+		protected void routePut(final HTable table, final Put put) throws IOException {
+			routed.add(put);
+			tables.add(table);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.archive.io.hbase.HBaseWriter#getRegionName(org.apache.hadoop.hbase.client.HTable, byte[])
+		 */
+		@Override
+		protected String getRegionName(final HTable table, final byte[] row) {
+			return "region";
+		}
+	}
 }
@@ -505,6 +505,24 @@ That's all there is to it!
  */
 package org.archive.modules.writer;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.archive.io.RecordingInputStream;
+import org.archive.io.RecordingOutputStream;
+import org.archive.io.hbase.ContentSampling;
+import org.archive.io.hbase.HBaseParameters;
+import org.archive.io.hbase.HBaseWriter;
+import org.archive.io.hbase.HBaseWriterPool;
+import org.archive.io.hbase.HostQuotaAction;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.Recorder;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
@@ -539,4 +557,200 @@ public class TestHBaseWriterProcessor {
 		Assert.assertEquals(hwproc.getURICount(), 0);
 	}
 
+	/**
+	 * Test that sample fractions are stable and spread evenly, so a sample
+	 * rate picks about that fraction of urls, the same ones every time.
+	 */
+	@Test()
+	public void testSampleFraction() {
+		Assert.assertEquals(HBaseWriterProcessor.getSampleFraction("http://www.example.com/"),
+				HBaseWriterProcessor.getSampleFraction("http://www.example.com/"));
+		int sampled = 0;
+		for (int i = 0; i < 10000; i++) {
+			double fraction = HBaseWriterProcessor.getSampleFraction("http://www.example.com/page" + i);
+			Assert.assertTrue(fraction >= 0 && fraction < 1);
+			if (fraction < 0.1) {
+				sampled++;
+			}
+		}
+		Assert.assertTrue(sampled > 900 && sampled < 1100, sampled + " of 10000 sampled at 0.1");
+	}
+
+	/**
+	 * Test that HOST content sampling keys on the host, so every uri of a
+	 * host gets the same decision, and that an unsampled uri is annotated.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testHostContentSampling() throws IOException {
+		HBaseParameters parameters = newParameters();
+		parameters.setContentSampleRate(0.5);
+		parameters.setContentSampling(ContentSampling.HOST);
+		RecordingProcessor processor = new RecordingProcessor(parameters);
+		int sampledHosts = 0;
+		try {
+			for (int i = 0; i < 20; i++) {
+				String host = "host" + i + ".example.com";
+				boolean sampled = HBaseWriterProcessor.getSampleFraction(host) < 0.5;
+				if (sampled) {
+					sampledHosts++;
+				}
+				for (int j = 0; j < 5; j++) {
+					CrawlURI curi = newCrawlURI("ftp://" + host + "/file" + j);
+					Assert.assertEquals(processor.getHost(curi), host);
+					Assert.assertEquals(processor.isContentSampled(curi), sampled, curi.toString());
+					Assert.assertTrue(processor.shouldWrite(curi));
+					Assert.assertEquals(curi.getAnnotations().contains(HBaseWriterProcessor.ANNOTATION_CONTENT_UNSAMPLED), !sampled);
+				}
+			}
+		} finally {
+			processor.getPool().close();
+		}
+		Assert.assertTrue(sampledHosts > 0 && sampledHosts < 20, sampledHosts + " of 20 hosts sampled at 0.5");
+	}
+
+	/**
+	 * Test that a uri outside the content sample is written without its
+	 * content.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testUnsampledWritesMetadataOnly() throws IOException {
+		HBaseParameters parameters = newParameters();
+		parameters.setContentSampleRate(0);
+		RecordingProcessor processor = new RecordingProcessor(parameters);
+		try {
+			CrawlURI curi = newCrawlURI("ftp://ftp.example.com/file");
+			Assert.assertTrue(processor.shouldWrite(curi));
+			Assert.assertTrue(curi.getAnnotations().contains(HBaseWriterProcessor.ANNOTATION_CONTENT_UNSAMPLED));
+			processor.write(curi, 0, null);
+			Assert.assertEquals(processor.writeContent, Collections.singletonList(false));
+		} finally {
+			processor.getPool().close();
+		}
+	}
+
+	/**
+	 * Test that a host past its METADATA_ONLY quota is annotated as over
+	 * quota and unsampled, so its next uri is written without content, while
+	 * the uris within the quota keep theirs.
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	@Test()
+	public void testHostQuotaMetadataOnly() throws IOException {
+		HBaseParameters parameters = newParameters();
+		parameters.setHostQuotaRows(1);
+		parameters.setHostQuotaAction(HostQuotaAction.METADATA_ONLY);
+		RecordingProcessor processor = new RecordingProcessor(parameters);
+		try {
+			CrawlURI first = newCrawlURI("ftp://ftp.example.com/first");
+			Assert.assertTrue(processor.shouldWrite(first));
+			Assert.assertFalse(first.getAnnotations().contains(HBaseWriterProcessor.ANNOTATION_HOST_OVER_QUOTA));
+			processor.write(first, 0, null);
+
+			CrawlURI second = newCrawlURI("ftp://ftp.example.com/second");
+			Assert.assertTrue(processor.shouldWrite(second));
+			Assert.assertTrue(second.getAnnotations().contains(HBaseWriterProcessor.ANNOTATION_HOST_OVER_QUOTA));
+			Assert.assertTrue(second.getAnnotations().contains(HBaseWriterProcessor.ANNOTATION_CONTENT_UNSAMPLED));
+			processor.write(second, 0, null);
+
+			// another host has a quota of its own
+			CrawlURI other = newCrawlURI("ftp://ftp.example.org/first");
+			Assert.assertTrue(processor.shouldWrite(other));
+			Assert.assertFalse(other.getAnnotations().contains(HBaseWriterProcessor.ANNOTATION_HOST_OVER_QUOTA));
+			processor.write(other, 0, null);
+
+			Assert.assertEquals(processor.writeContent, Arrays.asList(true, false, true));
+		} finally {
+			processor.getPool().close();
+		}
+	}
+
+	/**
+	 * Creates parameters for a pool that never connects to HBase.
+	 * 
+	 * @return the parameters
+	 */
+	private static HBaseParameters newParameters() {
+		HBaseParameters parameters = new HBaseParameters();
+		parameters.setHbaseTableName("test");
+		parameters.setZkQuorum("localhost");
+		parameters.setJmxEnabled(false);
+		return parameters;
+	}
+
+	/**
+	 * Creates a crawl uri fetched successfully, with a recorder to write from.
+	 * Ftp uris pass the scheme and status checks of WriterPoolProcessor
+	 * without an http transaction.
+	 * 
+	 * @param url
+	 *            the url
+	 * 
+	 * @return the crawl uri
+	 * 
+	 * @throws IOException
+	 *             Signals that an I/O exception has occurred.
+	 */
+	private static CrawlURI newCrawlURI(final String url) throws IOException {
+		CrawlURI curi = new CrawlURI(UURIFactory.getInstance(url));
+		curi.setFetchStatus(200);
+		File backingFile = File.createTempFile("recorder", null);
+		backingFile.delete();
+		backingFile.deleteOnExit();
+		curi.setRecorder(new Recorder(backingFile, 1024, 1024));
+		return curi;
+	}
+
+	/**
+	 * A processor writing through a pool of writers that only record whether
+	 * each uri was written with its content.
+	 */
+	private static class RecordingProcessor extends HBaseWriterProcessor {
+
+		/** Whether each write was given the content. */
+		final List<Boolean> writeContent = new ArrayList<Boolean>();
+
+		/**
+		 * Instantiates a new recording processor.
+		 * 
+		 * @param parameters
+		 *            the parameters
+		 */
+		RecordingProcessor(final HBaseParameters parameters) {
+			setHbaseParameters(parameters);
+			setPool(new HBaseWriterPool(new AtomicInteger(), this, 1, 100, parameters) {
+				@Override
+				protected HBaseWriter createWriter() throws IOException {
+					return new HBaseWriter(new AtomicInteger(), null, parameters, null, null) {
+						@Override
+						public void write(final CrawlURI curi, final String ip, final RecordingOutputStream recordingOutputStream,
+								final RecordingInputStream recordingInputStream, final boolean content) throws IOException {
+							writeContent.add(content);
+						}
+
+						@Override
+						public void close() {
+							// there are no clients to close
+						}
+					};
+				}
+			});
+		}
+
+		/* (non-Javadoc)
+		 * @see org.archive.modules.writer.WriterPoolProcessor#getHostAddress(org.archive.modules.CrawlURI)
+		 */
+		@Override
+		protected String getHostAddress(final CrawlURI curi) {
+			return "127.0.0.1";
+		}
+	}
+
 }